@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+/// how much heap the resolved AST of a large script takes as Expr and Stmt objects, and as a FlatAst. the script
+/// is generated, 100k lines by default, of classes, closures, loops and arithmetic, and also written to the file
+/// given so the engines can be run on it. 'java AstFootprint [lines] [file]'
+public class AstFootprint {
+
+    public static void main(String[] args) throws IOException {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        String source = program(lines);
+        if(args.length > 1) Files.writeString(Paths.get(args[1]), source);
+
+        // the first parse interns the names and loads the classes, so neither counts against either form.
+        resolve(source);
+        long baseline = used();
+
+        List<Stmt> statements = resolve(source);
+        long objects = used() - baseline;
+
+        FlatAst ast = FlatAst.encode(statements);
+        statements = null;
+        long flat = used() - baseline;
+
+        System.out.printf("%d lines, %.1f MB of source%n", source.split("\n").length, source.length() / 1e6);
+        System.out.printf("Expr and Stmt objects: %6.1f MB%n", objects / 1e6);
+        System.out.printf("FlatAst:               %6.1f MB (%d ints, %d constants, %d sites), %.1fx smaller%n",
+            flat / 1e6, ast.code.length, ast.constants.length, ast.siteCount, (double) objects / flat);
+    }
+
+    private static List<Stmt> resolve(String source){
+        List<Stmt> statements = new Parser(new Scanner(source).tokens()).parse();
+        new Resolver().resolve(statements);
+        if(Lox.hadError) throw new IllegalStateException("The generated program has errors.");
+        return statements;
+    }
+
+    /// the heap in use once the garbage is collected, give or take what the collector keeps to itself.
+    private static long used(){
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for(int i = 0; i < 5; i++){
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /// units of about 25 lines until there are as many as asked for, each a class with a subclass, a function with
+    /// a closure and a loop, and a few calls at the top level.
+    private static String program(int lines){
+        Random random = new Random(42);
+        String[] words = {"value", "count", "node", "item", "total", "index", "left", "right", "next", "cache"};
+        StringBuilder source = new StringBuilder(lines * 32);
+        int count = 0;
+        for(int unit = 0; count < lines; unit++){
+            String name = words[random.nextInt(words.length)] + unit;
+            int bound = 10 + random.nextInt(90);
+            source.append("class Base").append(unit).append(" {\n")
+                .append("  init(").append("a, b) {\n")
+                .append("    this.a = a;\n")
+                .append("    this.b = b * ").append(random.nextInt(1000)).append(".5;\n")
+                .append("  }\n")
+                .append("  sum() { return this.a + this.b; }\n")
+                .append("}\n")
+                .append("class Derived").append(unit).append(" < Base").append(unit).append(" {\n")
+                .append("  sum() { return super.sum() * 2; }\n")
+                .append("}\n")
+                .append("fun ").append(name).append("(n) {\n")
+                .append("  var total = 0;\n")
+                .append("  fun add(x) { total = total + x; return total; }\n")
+                .append("  for (var i = 0; i < n; i = i + 1) {\n")
+                .append("    if (i > ").append(bound / 2).append(" and !(i == 7)) add(i * 2);\n")
+                .append("    else add(-i);\n")
+                .append("  }\n")
+                .append("  var label = \"total \" + \"of ").append(name).append("\";\n")
+                .append("  if (total >= ").append(bound).append(") return total / 2;\n")
+                .append("  return total;\n")
+                .append("}\n")
+                .append("var d").append(unit).append(" = Derived").append(unit).append("(").append(unit)
+                .append(", ").append(bound).append(");\n")
+                .append("var r").append(unit).append(" = ").append(name).append("(").append(bound).append(") + d")
+                .append(unit).append(".sum();\n")
+                .append("if (r").append(unit).append(" < 0) print r").append(unit).append(";\n")
+                .append("\n");
+            count += 25;
+        }
+        return source.toString();
+    }
+}
@@ -0,0 +1,656 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/// compiles resolved statements into bytecode for the VM. locals live in stack slots of their function's frame,
+/// so the compiler keeps its own list of locals per function, in the same order the Resolver saw them, and
+/// variables that a nested function uses from an enclosing one become upvalues.
+public class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // a script takes no more top level statements once its constant pool is this big, which leaves the statement
+    // it ends on as many again before the u16 constant indices run out.
+    private static final int SCRIPT_CONSTANTS = 0x8000;
+
+    private static class Local{
+        // the Symbols id of the local's name, -1 for the function itself in slot 0 of a function that isn't a method.
+        final int symbol;
+        final int depth;
+        boolean captured = false;
+
+        Local(int symbol, int depth){
+            this.symbol = symbol;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue{
+        final boolean isLocal;
+        final int index;
+
+        Upvalue(boolean isLocal, int index){
+            this.isLocal = isLocal;
+            this.index = index;
+        }
+    }
+
+    // the function currently being compiled, together with the compiler state of the ones enclosing it.
+    private static class FunctionState{
+        final FunctionState enclosing;
+        final VmFunction function;
+        final List<Local> locals = new ArrayList<Local>();
+        final List<Upvalue> upvalues = new ArrayList<Upvalue>();
+        // an initializer returns 'this' instead of nil.
+        final boolean isInitializer;
+        // whether forward jumps take 32 bit offsets, set when the function is compiled again because one didn't fit
+        // in 16.
+        boolean wideJumps = false;
+        int scopeDepth = 0;
+        int stackHeight = 0;
+
+        FunctionState(FunctionState enclosing, VmFunction function, boolean isMethod, boolean isInitializer){
+            this.enclosing = enclosing;
+            this.function = function;
+            this.isInitializer = isInitializer;
+            // slot 0 holds the function being called, or the instance a method was called on.
+            locals.add(new Local(isMethod ? Symbols.intern("this") : -1, 0));
+        }
+    }
+
+    private FunctionState current;
+    private int line = 0;
+
+    /// the top level code becomes scripts the VM runs one after the other, each with a constant pool of its own, so
+    /// a long program doesn't run out of constant indices. a script only ends between top level statements, where
+    /// no locals are left on the stack.
+    List<VmFunction> compile(List<Stmt> statements){
+        List<VmFunction> scripts = new ArrayList<VmFunction>();
+        int start = 0;
+        do {
+            try {
+                start = script(statements, start, false, scripts);
+            } catch (JumpTooFar e) {
+                start = script(statements, start, true, scripts);
+            }
+        } while(start < statements.size());
+        return scripts;
+    }
+
+    /// compiles the statements from start on into the next script, returns where the script after it starts.
+    private int script(List<Stmt> statements, int start, boolean wideJumps, List<VmFunction> scripts){
+        current = new FunctionState(null, new VmFunction(null, 0), false, false);
+        current.wideJumps = wideJumps;
+        int end = start;
+        while(end < statements.size() && current.function.chunk.constantCount() < SCRIPT_CONSTANTS){
+            compile(statements.get(end++));
+        }
+        current.stackHeight = current.locals.size();
+        emitReturn();
+        scripts.add(endFunction());
+        return end;
+    }
+
+    private void compile(Stmt stmt){
+        // every statement leaves the stack as it found it, only the locals are left on it.
+        current.stackHeight = current.locals.size();
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr){
+        expr.accept(this);
+    }
+
+    private VmFunction endFunction(){
+        VmFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.finish();
+        current = current.enclosing;
+        return function;
+    }
+
+    // ---- emitting ----
+
+    private void emit(byte op){
+        current.function.chunk.write(op, line);
+        adjustStack(OpCode.STACK_EFFECT[op]);
+    }
+
+    private void emit(byte op, int operand){
+        emit(op);
+        emitByte(operand);
+    }
+
+    private void emitByte(int value){
+        current.function.chunk.write((byte) value, line);
+    }
+
+    private void emitShort(int value){
+        emitByte((value >> 8) & 0xff);
+        emitByte(value & 0xff);
+    }
+
+    private void adjustStack(int effect){
+        current.stackHeight += effect;
+        if(current.stackHeight > current.function.maxStack){
+            current.function.maxStack = current.stackHeight;
+        }
+    }
+
+    private void emitConstantOp(byte op, Object value){
+        emit(op);
+        emitShort(makeConstant(value));
+    }
+
+    private int makeConstant(Object value){
+        int index = current.function.chunk.addConstant(value);
+        if(index > 0xffff){
+            throw new CompileError(line, "Too many constants in one function.");
+        }
+        return index;
+    }
+
+    private void emitInt(int value){
+        emitShort(value >>> 16);
+        emitShort(value & 0xffff);
+    }
+
+    private void emitLocal(byte op, int slot){
+        if(slot <= 0xff){
+            emit(op, slot);
+            return;
+        }
+        emit(op == OpCode.GET_LOCAL ? OpCode.GET_LOCAL_WIDE : OpCode.SET_LOCAL_WIDE);
+        emitShort(slot);
+    }
+
+    private int emitJump(byte op){
+        if(current.wideJumps){
+            emit(op == OpCode.JUMP ? OpCode.JUMP_WIDE : OpCode.JUMP_IF_FALSE_WIDE);
+            emitInt(-1);
+            return current.function.chunk.count - 4;
+        }
+        emit(op);
+        emitShort(0xffff);
+        return current.function.chunk.count - 2;
+    }
+
+    /// a forward jump's offset is only known once the code it jumps over is, one that doesn't fit in a u16 has the
+    /// whole function compiled again with wide jumps.
+    private void patchJump(int offset){
+        Chunk chunk = current.function.chunk;
+        if(current.wideJumps){
+            int jump = chunk.count - offset - 4;
+            chunk.code[offset] = (byte) (jump >>> 24);
+            chunk.code[offset + 1] = (byte) ((jump >> 16) & 0xff);
+            chunk.code[offset + 2] = (byte) ((jump >> 8) & 0xff);
+            chunk.code[offset + 3] = (byte) (jump & 0xff);
+            return;
+        }
+        int jump = chunk.count - offset - 2;
+        if(jump > 0xffff) throw new JumpTooFar();
+        chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk.code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart){
+        // counted from after the operand, which the VM's ip is at when it reads it.
+        int offset = current.function.chunk.count + 3 - loopStart;
+        if(offset <= 0xffff){
+            emit(OpCode.LOOP);
+            emitShort(offset);
+        }else{
+            emit(OpCode.LOOP_WIDE);
+            emitInt(offset + 2);
+        }
+    }
+
+    private void emitReturn(){
+        if(current.isInitializer) emit(OpCode.GET_LOCAL, 0);
+        else emit(OpCode.NIL);
+        emit(OpCode.RETURN);
+    }
+
+    // ---- scopes and variables ----
+
+    private void beginScope(){
+        current.scopeDepth++;
+    }
+
+    private void endScope(){
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while(!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth){
+            emit(locals.get(locals.size() - 1).captured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private void addLocal(Token name){
+        addLocal(name.symbol);
+    }
+
+    private void addLocal(int symbol){
+        if(current.locals.size() == 0x10000){
+            throw new CompileError(line, "Too many local variables in function.");
+        }
+        current.locals.add(new Local(symbol, current.scopeDepth));
+    }
+
+    /// the value of the declaration is on top of the stack, it either becomes a global or simply stays as the local.
+    private void defineVariable(Token name){
+        if(current.scopeDepth > 0){
+            addLocal(name);
+            return;
+        }
+        emitConstantOp(OpCode.DEFINE_GLOBAL, name);
+    }
+
+    private static int resolveLocal(FunctionState state, int symbol){
+        for(int i = state.locals.size() - 1; i >= 0; i--){
+            if(state.locals.get(i).symbol == symbol) return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, int symbol){
+        if(state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, symbol);
+        if(local != -1){
+            state.enclosing.locals.get(local).captured = true;
+            return addUpvalue(state, true, local);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, symbol);
+        if(upvalue != -1){
+            return addUpvalue(state, false, upvalue);
+        }
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, boolean isLocal, int index){
+        for(int i = 0; i < state.upvalues.size(); i++){
+            Upvalue upvalue = state.upvalues.get(i);
+            if(upvalue.isLocal == isLocal && upvalue.index == index) return i;
+        }
+        if(state.upvalues.size() == 256){
+            throw new CompileError(line, "Too many closure variables in function.");
+        }
+        state.upvalues.add(new Upvalue(isLocal, index));
+        return state.upvalues.size() - 1;
+    }
+
+    private void variable(Token name, boolean assign){
+        line = name.line;
+        int slot = resolveLocal(current, name.symbol);
+        if(slot != -1){
+            emitLocal(assign ? OpCode.SET_LOCAL : OpCode.GET_LOCAL, slot);
+            return;
+        }
+
+        int upvalue = resolveUpvalue(current, name.symbol);
+        if(upvalue != -1){
+            emit(assign ? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE, upvalue);
+            return;
+        }
+
+        emitConstantOp(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL, name);
+    }
+
+    // ---- statements ----
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for(Stmt statement : stmt.statements){
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    /// the class is created once all of its methods are on the stack, so its method table is complete from the
+    /// start. a local class gets its slot first so the methods can refer to it.
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        boolean local = current.scopeDepth > 0;
+        if(local){
+            emit(OpCode.NIL);
+            addLocal(stmt.name);
+        }
+
+        if(stmt.superclass != null){
+            variable(stmt.superclass.name, false);
+            beginScope();
+            addLocal(Symbols.intern("super"));
+        }
+
+        for(Stmt.Function method : stmt.methods){
+            function(method, true, method.name.lexeme.equals("init"));
+        }
+
+        line = stmt.name.line;
+        emitConstantOp(OpCode.CLASS, stmt.name.lexeme);
+        emitShort(stmt.methods.size());
+        emitByte(stmt.superclass != null ? 1 : 0);
+        adjustStack(-stmt.methods.size());
+
+        if(local){
+            emitLocal(OpCode.SET_LOCAL, resolveLocal(current, stmt.name.symbol));
+            emit(OpCode.POP);
+        }else{
+            emitConstantOp(OpCode.DEFINE_GLOBAL, stmt.name);
+        }
+
+        if(stmt.superclass != null) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if(stmt.initializer != null){
+            compile(stmt.initializer);
+        }else{
+            emit(OpCode.NIL);
+        }
+        line = stmt.name.line;
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if(stmt.value instanceof Expr.Call || stmt.value instanceof Expr.Inline){
+            // the RETURN is only reached when the callee wasn't a closure, a closure replaces the frame.
+            Expr.Call call = stmt.value instanceof Expr.Inline ? ((Expr.Inline) stmt.value).call : (Expr.Call) stmt.value;
+            call(call, OpCode.TAIL_CALL);
+            line = stmt.keyword.line;
+            emit(OpCode.RETURN);
+        }else if(stmt.value instanceof Expr.Invoke){
+            invoke((Expr.Invoke) stmt.value, OpCode.TAIL_INVOKE);
+            line = stmt.keyword.line;
+            emit(OpCode.RETURN);
+        }else if(stmt.value != null){
+            compile(stmt.value);
+            emit(OpCode.RETURN);
+        }else{
+            emitReturn();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // a local function is declared before its body so it can refer to itself.
+        if(current.scopeDepth > 0){
+            addLocal(stmt.name);
+        }
+
+        function(stmt, false, false);
+
+        if(current.scopeDepth == 0){
+            emitConstantOp(OpCode.DEFINE_GLOBAL, stmt.name);
+        }
+        return null;
+    }
+
+    /// compiles the body and leaves the closure on the stack.
+    private void function(Stmt.Function stmt, boolean isMethod, boolean isInitializer){
+        // compiling the body only touches the enclosing function's locals and upvalues, and the second time marks
+        // and finds the same ones.
+        FunctionState enclosing = current;
+        FunctionState state;
+        try {
+            state = body(stmt, isMethod, isInitializer, false);
+        } catch (JumpTooFar e) {
+            current = enclosing;
+            state = body(stmt, isMethod, isInitializer, true);
+        }
+
+        emitConstantOp(OpCode.CLOSURE, state.function);
+        for(Upvalue upvalue : state.upvalues){
+            emitByte(upvalue.isLocal ? 1 : 0);
+            emitShort(upvalue.index);
+        }
+    }
+
+    private FunctionState body(Stmt.Function stmt, boolean isMethod, boolean isInitializer, boolean wideJumps){
+        current = new FunctionState(current, new VmFunction(stmt.name.lexeme, stmt.params.size()), isMethod, isInitializer);
+        current.wideJumps = wideJumps;
+        current.function.memo = stmt.memo;
+        beginScope();
+        for(Token param : stmt.params){
+            addLocal(param);
+        }
+        for(Stmt statement : stmt.body){
+            compile(statement);
+        }
+        line = stmt.name.line;
+        // a body without statements never counted its parameters, so count them before the implicit return.
+        current.stackHeight = current.locals.size();
+        emitReturn();
+        FunctionState state = current;
+        endFunction();
+        return state;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.expression);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.thenBranch);
+        int elseJump = emitJump(OpCode.JUMP);
+
+        patchJump(thenJump);
+        emit(OpCode.POP);
+        if(stmt.elseBranch != null){
+            compile(stmt.elseBranch);
+        }
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.function.chunk.count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    // ---- expressions ----
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        variable(expr.name, true);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case PLUS: emit(OpCode.ADD); break;
+            case MINUS: emit(OpCode.SUBTRACT); break;
+            case STAR: emit(OpCode.MULTIPLY); break;
+            case SLASH: emit(OpCode.DIVIDE); break;
+            case GREATER: emit(OpCode.GREATER); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL); break;
+            case LESS: emit(OpCode.LESS); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL); break;
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL); break;
+            default: throw new CompileError(line, "Unknown binary operator '" + expr.operator.lexeme + "'.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        call(expr, OpCode.CALL);
+        return null;
+    }
+
+    private void call(Expr.Call expr, byte op){
+        compile(expr.callee);
+        for(Expr argument : expr.arguments){
+            compile(argument);
+        }
+        line = expr.paren.line;
+        emit(op, expr.arguments.size());
+        adjustStack(-expr.arguments.size());
+    }
+
+    /// the VM's calls don't allocate anything the inlined body would save, and its locals live on the stack where
+    /// the Optimizer's slots don't exist, so an inlined call is compiled as the call it replaced.
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        call(expr.call, OpCode.CALL);
+        return null;
+    }
+
+    @Override
+    public Void visitInvokeExpr(Expr.Invoke expr) {
+        invoke(expr, OpCode.INVOKE);
+        return null;
+    }
+
+    private void invoke(Expr.Invoke expr, byte op){
+        compile(expr.object);
+        for(Expr argument : expr.arguments){
+            compile(argument);
+        }
+        line = expr.paren.line;
+        emitConstantOp(op, expr.name);
+        emitShort(makeConstant(new InlineCache()));
+        emitByte(expr.arguments.size());
+        adjustStack(-expr.arguments.size());
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        variable(expr.keyword, false);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        variable(new Token(TokenType.THIS, "this", null, expr.keyword.line), false);
+        variable(expr.keyword, false);
+        line = expr.method.line;
+        emitConstantOp(OpCode.GET_SUPER, expr.method);
+        emitShort(makeConstant(new InlineCache()));
+        return null;
+    }
+
+    // every site gets an InlineCache of its own in the constant pool.
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitConstantOp(OpCode.GET_PROPERTY, expr.name);
+        emitShort(makeConstant(new InlineCache()));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emitConstantOp(OpCode.SET_PROPERTY, expr.name);
+        emitShort(makeConstant(new InlineCache()));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null) emit(OpCode.NIL);
+        else if(expr.value.equals(true)) emit(OpCode.TRUE);
+        else if(expr.value.equals(false)) emit(OpCode.FALSE);
+        else emitConstantOp(OpCode.CONSTANT, expr.value);
+        return null;
+    }
+
+    // 'and' and 'or' produce booleans in jLox, not the operand that decided them.
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        if(expr.operator.type == TokenType.AND){
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }else{
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        emit(OpCode.TRUTHY);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        emit(expr.operator.type == TokenType.BANG ? OpCode.NOT : OpCode.NEGATE);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        variable(expr.name, false);
+        return null;
+    }
+
+    /// a program the bytecode format can't represent, like a function with more than 65536 locals.
+    static class CompileError extends RuntimeException{
+        final int line;
+
+        CompileError(int line, String message){
+            super(message);
+            this.line = line;
+        }
+    }
+
+    // a forward jump of the function being compiled is too long for a u16.
+    private static class JumpTooFar extends RuntimeException{
+        JumpTooFar(){
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+/// a local variable closures capture, the slot of the declaring frame holds the Cell instead of the value and the
+/// closures keep it among their upvalues. every run of the declaration makes a new one.
+public class Cell {
+    Object value;
+
+    Cell(Object value){
+        this.value = value;
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/// a compiled sequence of bytecode together with its constant pool and the source line of every byte.
+public class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    private final List<Object> constantPool = new ArrayList<Object>();
+    Object[] constants;
+    // the constants in the VM's Value encoding, the objects among them stay in constants.
+    long[] constantValues;
+
+    void write(byte value, int line){
+        if(count == code.length){
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = value;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value){
+        constantPool.add(value);
+        return constantPool.size() - 1;
+    }
+
+    int constantCount(){
+        return constantPool.size();
+    }
+
+    /// trims the code and freezes the constant pool into an array once the compiler is done with the chunk.
+    void finish(){
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantPool.toArray();
+        constantValues = new long[constants.length];
+        for(int i = 0; i < constants.length; i++){
+            constantValues[i] = Value.of(constants[i]);
+        }
+    }
+}
@@ -0,0 +1,276 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/// just enough of the JVM class file format for the JitCompiler: one class made of static fields and static methods.
+/// the class file is version 49, which the verifier checks by inferring the types itself, so no StackMapTable
+/// has to be computed for the branches.
+final class ClassFile {
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_PUBLIC = 0x0001;
+
+    static final int ACONST_NULL = 0x01;
+    static final int AALOAD = 0x32;
+    static final int AASTORE = 0x53;
+    static final int POP = 0x57;
+    static final int DUP = 0x59;
+    static final int SWAP = 0x5f;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IF_ICMPNE = 0xa0;
+    static final int IF_ACMPNE = 0xa6;
+    static final int GOTO = 0xa7;
+    static final int ARETURN = 0xb0;
+    static final int GETSTATIC = 0xb2;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESTATIC = 0xb8;
+    static final int ANEWARRAY = 0xbd;
+    static final int CHECKCAST = 0xc0;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    final String name;
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private int poolCount = 1;
+    // constant pool entries are shared, keyed by their tag and contents.
+    private final Map<String, Integer> entries = new HashMap<String, Integer>();
+    private final ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+    private final DataOutputStream fields = new DataOutputStream(fieldBytes);
+    private int fieldCount = 0;
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    ClassFile(String name){
+        this.name = name;
+    }
+
+    // ---- constant pool ----
+
+    private int utf8(String value){
+        return entry("u" + value, () -> {
+            poolOut.writeByte(CONSTANT_UTF8);
+            poolOut.writeUTF(value);
+        });
+    }
+
+    int classRef(String internalName){
+        int nameIndex = utf8(internalName);
+        return entry("c" + internalName, () -> {
+            poolOut.writeByte(CONSTANT_CLASS);
+            poolOut.writeShort(nameIndex);
+        });
+    }
+
+    private int nameAndType(String memberName, String descriptor){
+        int nameIndex = utf8(memberName);
+        int typeIndex = utf8(descriptor);
+        return entry("n" + memberName + " " + descriptor, () -> {
+            poolOut.writeByte(CONSTANT_NAME_AND_TYPE);
+            poolOut.writeShort(nameIndex);
+            poolOut.writeShort(typeIndex);
+        });
+    }
+
+    int fieldRef(String owner, String memberName, String descriptor){
+        return memberRef(CONSTANT_FIELDREF, owner, memberName, descriptor);
+    }
+
+    int methodRef(String owner, String memberName, String descriptor){
+        return memberRef(CONSTANT_METHODREF, owner, memberName, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String memberName, String descriptor){
+        int ownerIndex = classRef(owner);
+        int typeIndex = nameAndType(memberName, descriptor);
+        return entry(tag + owner + "." + memberName + " " + descriptor, () -> {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(ownerIndex);
+            poolOut.writeShort(typeIndex);
+        });
+    }
+
+    private interface PoolWriter{
+        void write() throws IOException;
+    }
+
+    private int entry(String key, PoolWriter writer){
+        Integer index = entries.get(key);
+        if(index != null) return index;
+        if(poolCount == 0xffff) throw new JitCompiler.Bailout("constant pool overflow");
+
+        try {
+            writer.write();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        entries.put(key, poolCount);
+        return poolCount++;
+    }
+
+    // ---- members ----
+
+    void addField(int access, String fieldName, String descriptor){
+        try {
+            fields.writeShort(access);
+            fields.writeShort(utf8(fieldName));
+            fields.writeShort(utf8(descriptor));
+            fields.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fieldCount++;
+    }
+
+    void addMethod(int access, String methodName, String descriptor, Code code){
+        if(code.length > 0xffff) throw new JitCompiler.Bailout("method too large");
+        try {
+            methods.writeShort(access);
+            methods.writeShort(utf8(methodName));
+            methods.writeShort(utf8(descriptor));
+            methods.writeShort(1);
+            methods.writeShort(utf8("Code"));
+            methods.writeInt(12 + code.length);
+            methods.writeShort(code.maxStack);
+            methods.writeShort(code.maxLocals);
+            methods.writeInt(code.length);
+            methods.write(code.bytes, 0, code.length);
+            methods.writeShort(0);
+            methods.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methodCount++;
+    }
+
+    byte[] toBytes(){
+        int thisClass = classRef(name);
+        int superClass = classRef("java/lang/Object");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(0x0010 | 0x0020); // ACC_FINAL | ACC_SUPER
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(fieldCount);
+            fieldBytes.writeTo(out);
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // ---- code ----
+
+    /// the bytecode of one method, it keeps count of the operand stack so max_stack comes for free.
+    static final class Code {
+        private byte[] bytes = new byte[256];
+        int length = 0;
+        int stack = 0;
+        int maxStack = 0;
+        int maxLocals = 0;
+
+        private void u1(int value){
+            if(length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+            bytes[length++] = (byte) value;
+        }
+
+        private void u2(int value){
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void adjust(int effect){
+            stack += effect;
+            if(stack > maxStack) maxStack = stack;
+        }
+
+        void op(int opcode, int effect){
+            u1(opcode);
+            adjust(effect);
+        }
+
+        /// an instruction with a constant pool index as its operand.
+        void op(int opcode, int index, int effect){
+            u1(opcode);
+            u2(index);
+            adjust(effect);
+        }
+
+        void loadInt(int value){
+            if(value >= -1 && value <= 5){
+                u1(0x03 + value); // ICONST_<n>
+            }else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE){
+                u1(0x10); // BIPUSH
+                u1(value);
+            }else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE){
+                u1(0x11); // SIPUSH
+                u2(value);
+            }else{
+                throw new JitCompiler.Bailout("integer operand too large");
+            }
+            adjust(1);
+        }
+
+        void load(int local){
+            localOp(0x19, local); // ALOAD
+            adjust(1);
+        }
+
+        void store(int local){
+            localOp(0x3a, local); // ASTORE
+            adjust(-1);
+        }
+
+        private void localOp(int opcode, int local){
+            if(local > 0xff) throw new JitCompiler.Bailout("too many locals");
+            if(local >= maxLocals) maxLocals = local + 1;
+            u1(opcode);
+            u1(local);
+        }
+
+        /// emits a branch to a target that isn't known yet, patch() points it at the current position.
+        int jump(int opcode, int effect){
+            int address = length;
+            u1(opcode);
+            u2(0);
+            adjust(effect);
+            return address;
+        }
+
+        void patch(int address){
+            int offset = length - address;
+            if(offset > Short.MAX_VALUE) throw new JitCompiler.Bailout("branch too far");
+            bytes[address + 1] = (byte) (offset >> 8);
+            bytes[address + 2] = (byte) offset;
+        }
+
+        void jumpBack(int opcode, int target, int effect){
+            int offset = target - length;
+            if(offset < Short.MIN_VALUE) throw new JitCompiler.Bailout("branch too far");
+            u1(opcode);
+            u2(offset);
+            adjust(effect);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+import java.util.List;
+
+/// a backend that runs resolved statements, Lox.main picks one with the '-engine=' option.
+interface Engine {
+    void interpret(List<Stmt> statements);
+}
@@ -1,62 +1,156 @@
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 public class Environment {
-    final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<String, Object>();
+    static final Cell[] NO_UPVALUES = new Cell[0];
+
+    // what the global of a symbol that was never defined holds, nil is a value like any other.
+    private static final Object UNDEFINED = new Object();
+
+    // only the global scope keys its variables by name, by the Symbols id of the name, globals can be used before
+    // they are declared and redefined at any time (think the REPL), so the Resolver leaves them alone. every other
+    // variable is resolved by the Resolver into a (depth, slot) pair: depth 0 is a slot of the running function's
+    // frame, where every block of the function keeps its variables too, and depth 1 is one of the upvalues of the
+    // running closure.
+    private Object[] values;
+    private final Object[] slots;
+    // the cells of the variables of enclosing functions the running closure uses.
+    final Cell[] upvalues;
+    private int count = 0;
+    // bumped whenever a global that held a function or class is redefined or assigned, compiled code that
+    // called such a global directly checks it to know its assumption still holds.
+    int callableVersion = 0;
 
     Environment(){
-        this.enclosing = null;
+        this.values = new Object[0];
+        this.slots = null;
+        this.upvalues = NO_UPVALUES;
+    }
+
+    /// the frame of a call, or of a top level block. the Resolver counts how many variables it declares so the
+    /// slots never need to grow.
+    Environment(Cell[] upvalues, int slotCount){
+        this.values = null;
+        this.slots = new Object[slotCount];
+        this.upvalues = upvalues;
     }
 
-    Environment(Environment enclosing){
-        this.enclosing = enclosing;
+    /// defines a global variable, only valid on the global scope.
+    void define(Token name, Object value){
+        defineGlobal(name.symbol, value);
     }
 
     void define(String name, Object value){
-        values.put(name, value);
+        defineGlobal(Symbols.intern(name), value);
     }
 
-    Object get(Token name){
-        if(values.containsKey(name.lexeme)){
-            return values.get(name.lexeme);
+    /// defines the global of a symbol, for the flat engine which keeps names as symbols rather than Tokens.
+    void defineGlobal(int symbol, Object value){
+        if(symbol >= values.length){
+            // room for every symbol so far, the globals a script defines are mostly interned before it runs.
+            int length = values.length;
+            values = Arrays.copyOf(values, Math.max(symbol + 1, Symbols.count()));
+            Arrays.fill(values, length, values.length, UNDEFINED);
         }
+        if(values[symbol] instanceof LoxCallable) callableVersion++;
+        values[symbol] = value;
+    }
+
+    /// defines the next of the implicit locals a frame starts with, 'this' and the parameters, which take the
+    /// first slots in that order.
+    void define(Object value){
+        slots[count++] = value;
+    }
 
-        if(enclosing != null){
-            return enclosing.get(name);
+    /// defines a declared local in the slot the Resolver gave it, the blocks of a function share its frame and may
+    /// run their declarations again and again. a captured local gets a Cell here before its value is assigned.
+    void define(int slot, Object value){
+        slots[slot] = value;
+    }
+
+    /// puts the implicit locals closures capture in cells, once they are all defined.
+    void capture(int[] slots){
+        for(int slot : slots){
+            this.slots[slot] = new Cell(this.slots[slot]);
+        }
+    }
+
+    Object get(Token name){
+        Object value = global(name.symbol);
+        if(value != UNDEFINED){
+            return value;
         }
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    Object getAt(int distance, String name){
-        return ancestor(distance).values.get(name);
+    /// the global of a symbol, an undefined one is reported on the line given.
+    Object get(int symbol, int line){
+        Object value = global(symbol);
+        if(value != UNDEFINED){
+            return value;
+        }
+
+        throw undefined(symbol, line);
+    }
+
+    /// the value of a global without failing when it's undefined, used by the JitCompiler to look at the program.
+    Object peek(Token name){
+        Object value = global(name.symbol);
+        return value == UNDEFINED ? null : value;
     }
 
-    void assignAt(int distance, Token name, Object value){
-        ancestor(distance).define(name.lexeme, value);
+    private Object global(int symbol){
+        return symbol < values.length ? values[symbol] : UNDEFINED;
     }
 
-    Environment ancestor(int distance){
-        Environment environment = this;
-        for(int i=0; i<distance; i++){
-            environment = environment.enclosing;
+    /// Cells are never Lox values, a slot holding one holds a captured variable.
+    Object getAt(int depth, int slot){
+        if(depth != 0) return upvalues[slot].value;
+        Object value = slots[slot];
+        return value instanceof Cell ? ((Cell) value).value : value;
+    }
+
+    void assignAt(int depth, int slot, Object value){
+        if(depth != 0){
+            upvalues[slot].value = value;
+        }else if(slots[slot] instanceof Cell){
+            ((Cell) slots[slot]).value = value;
+        }else{
+            slots[slot] = value;
         }
-        return environment;
     }
 
-    void assign(Token name, Object value){
-        if(values.containsKey(name.lexeme)){
-            values.put(name.lexeme, value);
-            return;
+    /// the upvalues of a closure made in this frame. the Resolver encodes the captures of a function as the slot
+    /// of a local of this frame, or as -1 - i for the i-th upvalue of the running closure.
+    Cell[] closure(int[] captures){
+        if(captures.length == 0) return NO_UPVALUES;
+        Cell[] cells = new Cell[captures.length];
+        for(int i = 0; i < captures.length; i++){
+            int capture = captures[i];
+            cells[i] = capture >= 0 ? (Cell) slots[capture] : upvalues[-1 - capture];
         }
+        return cells;
+    }
 
-        if(enclosing != null){
-            enclosing.assign(name, value);
+    void assign(Token name, Object value){
+        if(global(name.symbol) != UNDEFINED){
+            if(values[name.symbol] instanceof LoxCallable) callableVersion++;
+            values[name.symbol] = value;
             return;
         }
 
-        throw new RuntimeError(name, "Undefined variable '" + name + "'.");
+        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    void assign(int symbol, int line, Object value){
+        if(global(symbol) == UNDEFINED) throw undefined(symbol, line);
+        if(values[symbol] instanceof LoxCallable) callableVersion++;
+        values[symbol] = value;
+    }
+
+    private static RuntimeError undefined(int symbol, int line){
+        String name = Symbols.name(symbol);
+        return new RuntimeError(new Token(TokenType.IDENTIFIER, name, null, line, symbol), "Undefined variable '" + name + "'.");
     }
 
 }
@@ -5,9 +5,15 @@ abstract class Expr{
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
     R visitCallExpr(Call expr);
+    R visitGetExpr(Get expr);
+    R visitInvokeExpr(Invoke expr);
+    R visitInlineExpr(Inline expr);
     R visitGroupingExpr(Grouping expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
+    R visitSetExpr(Set expr);
+    R visitSuperExpr(Super expr);
+    R visitThisExpr(This expr);
     R visitUnaryExpr(Unary expr);
     R visitVariableExpr(Variable expr);
     }
@@ -23,6 +29,8 @@ abstract class Expr{
     }
     final Token name;
     final Expr value;
+    int depth = -1;
+    int slot;
     }
     static class Binary extends Expr{
     Binary(Expr left, Token operator, Expr right){
@@ -54,6 +62,55 @@ abstract class Expr{
     final Token paren;
     final List<Expr> arguments;
     }
+    static class Get extends Expr{
+    Get(Expr object, Token name){
+        this.object = object;
+        this.name = name;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+    return visitor.visitGetExpr(this);
+    }
+    final Expr object;
+    final Token name;
+    InlineCache cache = new InlineCache();
+    }
+    static class Invoke extends Expr{
+    Invoke(Expr object, Token name, Token paren, List<Expr> arguments){
+        this.object = object;
+        this.name = name;
+        this.paren = paren;
+        this.arguments = arguments;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+    return visitor.visitInvokeExpr(this);
+    }
+    final Expr object;
+    final Token name;
+    final Token paren;
+    final List<Expr> arguments;
+    InlineCache cache = new InlineCache();
+    }
+    static class Inline extends Expr{
+    Inline(Expr.Call call, Stmt.Function function, Expr body){
+        this.call = call;
+        this.function = function;
+        this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+    return visitor.visitInlineExpr(this);
+    }
+    final Expr.Call call;
+    final Stmt.Function function;
+    final Expr body;
+    int base;
+    boolean deoptimized;
+    }
     static class Grouping extends Expr{
     Grouping(Expr expression){
         this.expression = expression;
@@ -91,6 +148,53 @@ abstract class Expr{
     final Token operator;
     final Expr right;
     }
+    static class Set extends Expr{
+    Set(Expr object, Token name, Expr value){
+        this.object = object;
+        this.name = name;
+        this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+    return visitor.visitSetExpr(this);
+    }
+    final Expr object;
+    final Token name;
+    final Expr value;
+    InlineCache cache = new InlineCache();
+    }
+    static class Super extends Expr{
+    Super(Token keyword, Token method){
+        this.keyword = keyword;
+        this.method = method;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+    return visitor.visitSuperExpr(this);
+    }
+    final Token keyword;
+    final Token method;
+    int depth = -1;
+    int slot;
+    int thisDepth;
+    int thisSlot;
+    InlineCache cache = new InlineCache();
+    }
+    static class This extends Expr{
+    This(Token keyword){
+        this.keyword = keyword;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+    return visitor.visitThisExpr(this);
+    }
+    final Token keyword;
+    int depth = -1;
+    int slot;
+    }
     static class Unary extends Expr{
     Unary(Token operator, Expr right){
         this.operator = operator;
@@ -114,6 +218,8 @@ abstract class Expr{
     return visitor.visitVariableExpr(this);
     }
     final Token name;
+    int depth = -1;
+    int slot;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,479 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/// the resolved AST of the flat engine ('-engine=flat') laid out in a single int array instead of an object per
+/// node. a node is a header, its kind in the low byte and the line it reports errors on above it, followed by its
+/// operands: slots, symbols and the indices of its children, which are encoded before it. the values of number and
+/// string literals are in a side pool, each distinct one once, and names are their Symbols id. a program takes a
+/// few ints per node where the Expr and Stmt classes take an object with a header, a Token and often a List, and
+/// the nodes of a function lie next to each other in memory, in the order they run.
+///
+/// the layout of each kind, after the header:
+///   NIL, TRUE, FALSE
+///   LITERAL          constant
+///   LOCAL            depth, slot                     (variables and 'this')
+///   GLOBAL           symbol
+///   ASSIGN_LOCAL     depth, slot, value
+///   ASSIGN_GLOBAL    symbol, value
+///   ADD .. NOT_EQUAL left, right                     (one kind per binary operator)
+///   AND, OR          left, right
+///   NEGATE, NOT      operand
+///   CALL             callee, count, arguments...
+///   INVOKE           symbol, name line, site, object, count, arguments...
+///   GET              symbol, site, object
+///   SET              symbol, site, object, value
+///   SUPER            symbol, site, depth, slot, this depth, this slot
+///   EXPRESSION       expression
+///   PRINT            expression
+///   VAR              symbol, global, slot, captured, initializer
+///   BLOCK            slot count or -1, count, statements...
+///   IF               condition, then, else
+///   WHILE            condition, body
+///   RETURN           value
+///   FUNCTION         symbol, global, slot, captured, arity, slot count, is method, memo, captures,
+///                    captured parameters, count, statements...
+///   CLASS            symbol, global, slot, captured, super slot, superclass, count, methods...
+/// a missing child is -1, booleans are 0 or 1, memo and the captures are constants. the property sites, the ones
+/// that need an InlineCache, are numbered so the engine can keep their caches on the side.
+final class FlatAst implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+    static final int NIL = 0, TRUE = 1, FALSE = 2, LITERAL = 3, LOCAL = 4, GLOBAL = 5, ASSIGN_LOCAL = 6,
+        ASSIGN_GLOBAL = 7, ADD = 8, SUBTRACT = 9, MULTIPLY = 10, DIVIDE = 11, LESS = 12, LESS_EQUAL = 13,
+        GREATER = 14, GREATER_EQUAL = 15, EQUAL = 16, NOT_EQUAL = 17, AND = 18, OR = 19, NEGATE = 20, NOT = 21,
+        CALL = 22, INVOKE = 23, GET = 24, SET = 25, SUPER = 26;
+    static final int EXPRESSION = 32, PRINT = 33, VAR = 34, BLOCK = 35, IF = 36, WHILE = 37, RETURN = 38,
+        FUNCTION = 39, CLASS = 40;
+
+    static final int KIND_BITS = 8;
+    static final int KIND_MASK = (1 << KIND_BITS) - 1;
+
+    int[] code = new int[1024];
+    int size = 0;
+    Object[] constants = new Object[64];
+    int constantCount = 0;
+    // how many property sites there are, and their caches once the engine runs them.
+    int siteCount = 0;
+    FlatInterpreter.Site[] sites;
+    // the top level statements in order.
+    int[] program = new int[64];
+    int programSize = 0;
+
+    // the index of each literal value in the pool, dropped once the program is complete.
+    private Map<Object, Integer> constantIndex = new HashMap<Object, Integer>();
+    // the constant of the empty list of slots, -1 until there is one.
+    private int noSlots = -1;
+    // 0 while encoding top level code, declarations there are globals and everything deeper is a local slot.
+    private int scopeDepth = 0;
+
+    /// parses, resolves and encodes the script one top level declaration at a time, so only the objects of the
+    /// one at hand exist at once. null when the script has errors, which are reported like Lox.resolve does except
+    /// that the Resolver's errors before the first syntax error are too.
+    static FlatAst compile(CharSequence source){
+        Parser parser = new Parser(new Scanner(source).tokens());
+        Resolver resolver = new Resolver();
+        FlatAst ast = new FlatAst();
+        while(!parser.done()){
+            Stmt statement = parser.next();
+            // past a syntax error the rest is only parsed, to report the other ones.
+            if(parser.hadError()) continue;
+            resolver.resolve(Collections.singletonList(statement));
+            if(!Lox.hadError) ast.add(statement);
+        }
+        if(Lox.hadError) return null;
+        ast.trim();
+        return ast;
+    }
+
+    static FlatAst encode(List<Stmt> statements){
+        FlatAst ast = new FlatAst();
+        for(Stmt statement : statements){
+            if(statement != null) ast.add(statement);
+        }
+        ast.trim();
+        return ast;
+    }
+
+    /// encodes a top level statement after the ones before it.
+    void add(Stmt statement){
+        int node = encode(statement);
+        if(programSize == program.length) program = Arrays.copyOf(program, programSize * 2);
+        program[programSize++] = node;
+    }
+
+    /// gives back the room the arrays grew ahead of time, once nothing more is added.
+    void trim(){
+        code = Arrays.copyOf(code, size);
+        constants = Arrays.copyOf(constants, constantCount);
+        program = Arrays.copyOf(program, programSize);
+        constantIndex = null;
+    }
+
+    static int kind(int header){
+        return header & KIND_MASK;
+    }
+
+    static int line(int header){
+        return header >>> KIND_BITS;
+    }
+
+    private int encode(Stmt stmt){
+        return stmt == null ? -1 : stmt.accept(this);
+    }
+
+    private int encode(Expr expr){
+        return expr == null ? -1 : expr.accept(this);
+    }
+
+    private int[] encodeStatements(List<Stmt> statements){
+        int[] nodes = new int[statements.size()];
+        for(int i = 0; i < nodes.length; i++){
+            nodes[i] = encode(statements.get(i));
+        }
+        return nodes;
+    }
+
+    private int[] encodeExpressions(List<Expr> expressions){
+        int[] nodes = new int[expressions.size()];
+        for(int i = 0; i < nodes.length; i++){
+            nodes[i] = encode(expressions.get(i));
+        }
+        return nodes;
+    }
+
+    /// starts a node, its operands are put right after.
+    private int begin(int kind, int line){
+        int node = size;
+        put((line << KIND_BITS) | kind);
+        return node;
+    }
+
+    private void put(int word){
+        if(size == code.length) code = Arrays.copyOf(code, size * 2);
+        code[size++] = word;
+    }
+
+    private void put(boolean flag){
+        put(flag ? 1 : 0);
+    }
+
+    private void putAll(int[] nodes){
+        put(nodes.length);
+        for(int node : nodes) put(node);
+    }
+
+    /// a literal value or a runtime object of the program, values that are equal share one entry.
+    private int constant(Object value){
+        if(value instanceof Double || value instanceof String){
+            Integer index = constantIndex.get(value);
+            if(index != null) return index;
+            constantIndex.put(value, constantCount);
+        }
+        if(constantCount == constants.length) constants = Arrays.copyOf(constants, constantCount * 2);
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+
+    /// the slots a function captures, most capture none and share one empty entry.
+    private int slots(int[] slots){
+        if(slots.length > 0) return constant(slots);
+        if(noSlots == -1) noSlots = constant(slots);
+        return noSlots;
+    }
+
+    private int constantOrNone(Object value){
+        return value == null ? -1 : constant(value);
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+        scopeDepth++;
+        int[] statements = encodeStatements(stmt.statements);
+        scopeDepth--;
+        int node = begin(BLOCK, 0);
+        put(stmt.needsEnvironment ? stmt.slotCount : -1);
+        putAll(statements);
+        return node;
+    }
+
+    @Override
+    public Integer visitClassStmt(Stmt.Class stmt) {
+        int superclass = encode(stmt.superclass);
+        int[] methods = new int[stmt.methods.size()];
+        for(int i = 0; i < methods.length; i++){
+            methods[i] = function(stmt.methods.get(i), false);
+        }
+        int node = begin(CLASS, stmt.name.line);
+        put(stmt.name.symbol);
+        put(scopeDepth == 0);
+        put(stmt.slot);
+        put(stmt.captured);
+        put(stmt.superSlot);
+        put(superclass);
+        putAll(methods);
+        return node;
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+        int expression = encode(stmt.expression);
+        int node = begin(EXPRESSION, 0);
+        put(expression);
+        return node;
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+        int initializer = encode(stmt.initializer);
+        int node = begin(VAR, stmt.name.line);
+        put(stmt.name.symbol);
+        put(scopeDepth == 0);
+        put(stmt.slot);
+        put(stmt.captured);
+        put(initializer);
+        return node;
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+        int value = encode(stmt.value);
+        int node = begin(RETURN, stmt.keyword.line);
+        put(value);
+        return node;
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+        return function(stmt, scopeDepth == 0);
+    }
+
+    private int function(Stmt.Function stmt, boolean global){
+        int enclosingDepth = scopeDepth;
+        scopeDepth = 1;
+        int[] body = encodeStatements(stmt.body);
+        scopeDepth = enclosingDepth;
+
+        int node = begin(FUNCTION, stmt.name.line);
+        put(stmt.name.symbol);
+        put(global);
+        put(stmt.slot);
+        put(stmt.captured);
+        put(stmt.params.size());
+        put(stmt.slotCount);
+        put(stmt.isMethod);
+        put(constantOrNone(stmt.memo));
+        put(slots(stmt.captures));
+        put(slots(stmt.capturedParameters));
+        putAll(body);
+        return node;
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+        int condition = encode(stmt.expression);
+        int thenBranch = encode(stmt.thenBranch);
+        int elseBranch = encode(stmt.elseBranch);
+        int node = begin(IF, 0);
+        put(condition);
+        put(thenBranch);
+        put(elseBranch);
+        return node;
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+        int expression = encode(stmt.expression);
+        int node = begin(PRINT, 0);
+        put(expression);
+        return node;
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+        int condition = encode(stmt.condition);
+        int body = encode(stmt.body);
+        int node = begin(WHILE, 0);
+        put(condition);
+        put(body);
+        return node;
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+        int value = encode(expr.value);
+        if(expr.depth != -1){
+            int node = begin(ASSIGN_LOCAL, expr.name.line);
+            put(expr.depth);
+            put(expr.slot);
+            put(value);
+            return node;
+        }
+        int node = begin(ASSIGN_GLOBAL, expr.name.line);
+        put(expr.name.symbol);
+        put(value);
+        return node;
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+        int left = encode(expr.left);
+        int right = encode(expr.right);
+        int node = begin(binaryKind(expr.operator.type), expr.operator.line);
+        put(left);
+        put(right);
+        return node;
+    }
+
+    private static int binaryKind(TokenType type){
+        switch (type) {
+            case PLUS: return ADD;
+            case MINUS: return SUBTRACT;
+            case STAR: return MULTIPLY;
+            case SLASH: return DIVIDE;
+            case LESS: return LESS;
+            case LESS_EQUAL: return LESS_EQUAL;
+            case GREATER: return GREATER;
+            case GREATER_EQUAL: return GREATER_EQUAL;
+            case EQUAL_EQUAL: return EQUAL;
+            case BANG_EQUAL: return NOT_EQUAL;
+        }
+        throw new IllegalStateException("Not a binary operator: " + type);
+    }
+
+    /// the operator of a binary or unary kind, for the errors and the generic semantics of Interpreter.binary.
+    static TokenType operator(int kind){
+        switch (kind) {
+            case ADD: return TokenType.PLUS;
+            case SUBTRACT: return TokenType.MINUS;
+            case MULTIPLY: return TokenType.STAR;
+            case DIVIDE: return TokenType.SLASH;
+            case LESS: return TokenType.LESS;
+            case LESS_EQUAL: return TokenType.LESS_EQUAL;
+            case GREATER: return TokenType.GREATER;
+            case GREATER_EQUAL: return TokenType.GREATER_EQUAL;
+            case EQUAL: return TokenType.EQUAL_EQUAL;
+            case NOT_EQUAL: return TokenType.BANG_EQUAL;
+            case NEGATE: return TokenType.MINUS;
+            case NOT: return TokenType.BANG;
+        }
+        throw new IllegalStateException("Not an operator: " + kind);
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+        int callee = encode(expr.callee);
+        int[] arguments = encodeExpressions(expr.arguments);
+        int node = begin(CALL, expr.paren.line);
+        put(callee);
+        putAll(arguments);
+        return node;
+    }
+
+    /// the body the Optimizer inlined is left out, the flat engine makes the call.
+    @Override
+    public Integer visitInlineExpr(Expr.Inline expr) {
+        return visitCallExpr(expr.call);
+    }
+
+    @Override
+    public Integer visitInvokeExpr(Expr.Invoke expr) {
+        int object = encode(expr.object);
+        int[] arguments = encodeExpressions(expr.arguments);
+        int node = begin(INVOKE, expr.paren.line);
+        put(expr.name.symbol);
+        put(expr.name.line);
+        put(siteCount++);
+        put(object);
+        putAll(arguments);
+        return node;
+    }
+
+    @Override
+    public Integer visitGetExpr(Expr.Get expr) {
+        int object = encode(expr.object);
+        int node = begin(GET, expr.name.line);
+        put(expr.name.symbol);
+        put(siteCount++);
+        put(object);
+        return node;
+    }
+
+    @Override
+    public Integer visitSetExpr(Expr.Set expr) {
+        int object = encode(expr.object);
+        int value = encode(expr.value);
+        int node = begin(SET, expr.name.line);
+        put(expr.name.symbol);
+        put(siteCount++);
+        put(object);
+        put(value);
+        return node;
+    }
+
+    @Override
+    public Integer visitSuperExpr(Expr.Super expr) {
+        int node = begin(SUPER, expr.method.line);
+        put(expr.method.symbol);
+        put(siteCount++);
+        put(expr.depth);
+        put(expr.slot);
+        put(expr.thisDepth);
+        put(expr.thisSlot);
+        return node;
+    }
+
+    @Override
+    public Integer visitThisExpr(Expr.This expr) {
+        int node = begin(LOCAL, expr.keyword.line);
+        put(expr.depth);
+        put(expr.slot);
+        return node;
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+        return encode(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null) return begin(NIL, 0);
+        if(expr.value.equals(Boolean.TRUE)) return begin(TRUE, 0);
+        if(expr.value.equals(Boolean.FALSE)) return begin(FALSE, 0);
+        int node = begin(LITERAL, 0);
+        put(constant(expr.value));
+        return node;
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+        int left = encode(expr.left);
+        int right = encode(expr.right);
+        int node = begin(expr.operator.type == TokenType.AND ? AND : OR, expr.operator.line);
+        put(left);
+        put(right);
+        return node;
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+        int right = encode(expr.right);
+        int node = begin(expr.operator.type == TokenType.BANG ? NOT : NEGATE, expr.operator.line);
+        put(right);
+        return node;
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+        if(expr.depth != -1){
+            int node = begin(LOCAL, expr.name.line);
+            put(expr.depth);
+            put(expr.slot);
+            return node;
+        }
+        int node = begin(GLOBAL, expr.name.line);
+        put(expr.name.symbol);
+        return node;
+    }
+}
@@ -0,0 +1,98 @@
+import java.util.List;
+
+/// a function of the flat engine, the counterpart of LoxFunction which runs a FUNCTION node of a FlatAst.
+public class FlatFunction implements LoxCallable, LoxMethod {
+    private final FlatInterpreter interpreter;
+    // the program the function was declared in and its node there.
+    private final FlatAst ast;
+    private final int node;
+    // the cells of the variables of enclosing functions the body uses.
+    private final Cell[] upvalues;
+    // an initializer always returns 'this'.
+    private final boolean isInitializer;
+    // the instance a method looked up as a value was bound to, null for functions and the methods of a class.
+    final LoxInstance receiver;
+
+    FlatFunction(FlatInterpreter interpreter, FlatAst ast, int node, Cell[] upvalues, boolean isInitializer){
+        this(interpreter, ast, node, upvalues, isInitializer, null);
+    }
+
+    private FlatFunction(FlatInterpreter interpreter, FlatAst ast, int node, Cell[] upvalues, boolean isInitializer, LoxInstance receiver){
+        this.interpreter = interpreter;
+        this.ast = ast;
+        this.node = node;
+        this.upvalues = upvalues;
+        this.isInitializer = isInitializer;
+        this.receiver = receiver;
+    }
+
+    @Override
+    public FlatFunction bind(LoxInstance instance){
+        return new FlatFunction(interpreter, ast, node, upvalues, isInitializer, instance);
+    }
+
+    @Override
+    public int arity() {
+        return ast.code[node + 5];
+    }
+
+    @Override
+    public Object call(Interpreter unused, List<Object> arguments) {
+        if(ast.code[node + 8] == -1) return invoke(receiver, arguments);
+        return memoized(receiver, arguments);
+    }
+
+    /// a 'memo fun' only runs the body when its cache doesn't have the result yet.
+    private Object memoized(LoxInstance instance, List<Object> arguments) {
+        MemoCache cache = (MemoCache) ast.constants[ast.code[node + 8]];
+        List<Object> key = MemoCache.key(arguments);
+        if(key == null) return invoke(instance, arguments);
+        Object result = cache.get(key);
+        if(result != MemoCache.MISSING) return result;
+        result = invoke(instance, arguments);
+        cache.put(key, result);
+        return result;
+    }
+
+    /// calls a method of the instance's class with the instance as 'this', which the Resolver put in the first
+    /// slot of the method's scope.
+    Object invoke(LoxInstance instance, List<Object> arguments) {
+        return finish(execute(instance, arguments));
+    }
+
+    /// makes the tail calls a body ended in, one after the other from the same Java frame. a tail call to a
+    /// 'memo fun' goes through its cache, on a frame of its own.
+    private Object finish(Object result) {
+        while(result == Interpreter.Completion.TAIL_CALL){
+            FlatFunction function = interpreter.takeTailFunction();
+            LoxInstance instance = interpreter.takeTailReceiver();
+            List<Object> arguments = interpreter.takeTailArguments();
+            if(function.ast.code[function.node + 8] != -1) return function.memoized(instance, arguments);
+            result = function.execute(instance, arguments);
+        }
+        return result;
+    }
+
+    /// runs the body once, the result is TAIL_CALL when it ended in a tail call that is still to be made.
+    private Object execute(LoxInstance instance, List<Object> arguments) {
+        int[] code = ast.code;
+        Environment environment = new Environment(upvalues, code[node + 6]);
+        if(code[node + 7] == 1) environment.define(instance);
+        for(int i = 0; i < arguments.size(); i++){
+            environment.define(arguments.get(i));
+        }
+        environment.capture((int[]) ast.constants[code[node + 10]]);
+
+        FlatAst previous = interpreter.enter(ast);
+        Object result = interpreter.executeBody(node, environment);
+        interpreter.enter(previous);
+
+        if(isInitializer) return instance;
+        return result;
+    }
+
+    @Override
+    public String toString(){
+        return "<fn " + Symbols.name(ast.code[node + 1]) + ">";
+    }
+}
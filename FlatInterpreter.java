@@ -0,0 +1,514 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/// the engine that walks a FlatAst ('-engine=flat'), a switch over the kind of each node instead of a visitor.
+/// a statement returns whether a return statement completed it, with the value waiting in returnValue. the
+/// operators do numbers, and strings for '+', themselves and leave everything else to Interpreter.binary, with a
+/// Token made from the node's line only when one is needed.
+public class FlatInterpreter implements Engine {
+    final Environment globals = new Environment();
+    // how many calls may be in progress at once, every call still takes room on the Java stack.
+    private final int maxDepth;
+    private int depth = 0;
+
+    // the program being run, the functions of an earlier one (think the REPL) switch back to theirs while they run.
+    private FlatAst ast;
+    private int[] code;
+    private Object[] constants;
+    private Site[] sites;
+    // the value of the return statement that just completed, until the function call takes it.
+    private Object returnValue = null;
+    // the call a return statement ended in, until the FlatFunction returned from makes it.
+    private FlatFunction tailFunction = null;
+    private LoxInstance tailReceiver = null;
+    private List<Object> tailArguments = null;
+
+    /// the cache of a property site and the name it looks up, made the first time the site runs.
+    static final class Site {
+        final InlineCache cache = new InlineCache();
+        final Token name;
+
+        Site(Token name){
+            this.name = name;
+        }
+    }
+
+    FlatInterpreter(int maxDepth){
+        this.maxDepth = maxDepth;
+        NativeFunctions.registerFunctions(globals);
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements) {
+        run(FlatAst.encode(statements));
+    }
+
+    void run(FlatAst program) {
+        depth = 0;
+        enter(program);
+        try {
+            for(int i = 0; i < program.programSize; i++){
+                execute(program.program[i], globals);
+            }
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    /// makes the program the one being run, returns the one that was.
+    FlatAst enter(FlatAst program){
+        FlatAst previous = ast;
+        if(program != previous){
+            ast = program;
+            code = program.code;
+            constants = program.constants;
+            if(program.sites == null) program.sites = new Site[program.siteCount];
+            sites = program.sites;
+        }
+        return previous;
+    }
+
+    // ---- statements ----
+
+    private boolean execute(int node, Environment environment){
+        int[] code = this.code;
+        switch (FlatAst.kind(code[node])) {
+            case FlatAst.EXPRESSION:
+                evaluate(code[node + 1], environment);
+                return false;
+
+            case FlatAst.PRINT:
+                System.out.println(Interpreter.stringify(evaluate(code[node + 1], environment)));
+                return false;
+
+            case FlatAst.VAR: {
+                int initializer = code[node + 5];
+                Object value = initializer == -1 ? null : evaluate(initializer, environment);
+                if(code[node + 2] == 1){
+                    globals.defineGlobal(code[node + 1], value);
+                }else{
+                    environment.define(code[node + 3], code[node + 4] == 1 ? new Cell(value) : value);
+                }
+                return false;
+            }
+
+            case FlatAst.BLOCK: {
+                int slotCount = code[node + 1];
+                Environment scope = slotCount == -1 ? environment : new Environment(Environment.NO_UPVALUES, slotCount);
+                return executeAll(node + 2, scope);
+            }
+
+            case FlatAst.IF:
+                if(condition(code[node + 1], environment)) return execute(code[node + 2], environment);
+                if(code[node + 3] != -1) return execute(code[node + 3], environment);
+                return false;
+
+            case FlatAst.WHILE:
+                while(condition(code[node + 1], environment)){
+                    if(execute(code[node + 2], environment)) return true;
+                }
+                return false;
+
+            case FlatAst.RETURN: {
+                int value = code[node + 1];
+                if(value == -1) returnValue = null;
+                else if(FlatAst.kind(code[value]) == FlatAst.CALL) returnValue = tailCall(value, environment);
+                else if(FlatAst.kind(code[value]) == FlatAst.INVOKE) returnValue = tailInvoke(value, environment);
+                else returnValue = evaluate(value, environment);
+                return true;
+            }
+
+            case FlatAst.FUNCTION:
+                defineFunction(node, environment);
+                return false;
+
+            case FlatAst.CLASS:
+                defineClass(node, environment);
+                return false;
+        }
+
+        throw new IllegalStateException("Not a statement: " + FlatAst.kind(code[node]));
+    }
+
+    /// the statements listed at the index, a count followed by that many nodes.
+    private boolean executeAll(int list, Environment environment){
+        int[] code = this.code;
+        int count = code[list];
+        for(int i = 1; i <= count; i++){
+            if(execute(code[list + i], environment)) return true;
+        }
+        return false;
+    }
+
+    /// a captured local function gets its Cell before the closure is made, the body may call it.
+    private void defineFunction(int node, Environment environment){
+        int[] code = this.code;
+        if(code[node + 2] == 1){
+            globals.defineGlobal(code[node + 1], new FlatFunction(this, ast, node, Environment.NO_UPVALUES, false));
+            return;
+        }
+        int[] captures = (int[]) constants[code[node + 9]];
+        if(code[node + 4] == 1){
+            Cell cell = new Cell(null);
+            environment.define(code[node + 3], cell);
+            cell.value = new FlatFunction(this, ast, node, environment.closure(captures), false);
+        }else{
+            environment.define(code[node + 3], new FlatFunction(this, ast, node, environment.closure(captures), false));
+        }
+    }
+
+    /// the methods of a subclass capture the superclass from the slot the Resolver gave 'super', in a frame of
+    /// its own for a global class.
+    private void defineClass(int node, Environment environment){
+        int[] code = this.code;
+        boolean global = code[node + 2] == 1;
+        Cell cell = null;
+        if(code[node + 4] == 1 && !global){
+            cell = new Cell(null);
+            environment.define(code[node + 3], cell);
+        }
+
+        LoxClass superclass = null;
+        Environment frame = environment;
+        int superclassNode = code[node + 6];
+        if(superclassNode != -1){
+            Object value = evaluate(superclassNode, environment);
+            if(!(value instanceof LoxClass)){
+                throw new RuntimeError(name(superclassNode), "Superclass must be a class.");
+            }
+            superclass = (LoxClass) value;
+            if(global) frame = new Environment(Environment.NO_UPVALUES, 1);
+            frame.define(code[node + 5], new Cell(superclass));
+        }
+
+        Map<String, FlatFunction> methods = new HashMap<String, FlatFunction>();
+        int count = code[node + 7];
+        for(int i = 0; i < count; i++){
+            int method = code[node + 8 + i];
+            String name = Symbols.name(code[method + 1]);
+            Cell[] upvalues = frame.closure((int[]) constants[code[method + 9]]);
+            methods.put(name, new FlatFunction(this, ast, method, upvalues, name.equals("init")));
+        }
+
+        LoxClass klass = new LoxClass(Symbols.name(code[node + 1]), superclass, methods);
+        if(global){
+            globals.defineGlobal(code[node + 1], klass);
+        }else if(cell != null){
+            cell.value = klass;
+        }else{
+            environment.define(code[node + 3], klass);
+        }
+    }
+
+    /// runs the body of the function node in its frame, the result is what it returned.
+    Object executeBody(int function, Environment environment){
+        if(executeAll(function + 11, environment)){
+            Object value = returnValue;
+            returnValue = null;
+            return value;
+        }
+        return null;
+    }
+
+    // ---- expressions ----
+
+    private Object evaluate(int node, Environment environment){
+        int[] code = this.code;
+        int kind = FlatAst.kind(code[node]);
+        switch (kind) {
+            case FlatAst.NIL: return null;
+            case FlatAst.TRUE: return true;
+            case FlatAst.FALSE: return false;
+            case FlatAst.LITERAL: return constants[code[node + 1]];
+
+            case FlatAst.LOCAL: return environment.getAt(code[node + 1], code[node + 2]);
+            case FlatAst.GLOBAL: return globals.get(code[node + 1], FlatAst.line(code[node]));
+
+            case FlatAst.ASSIGN_LOCAL: {
+                Object value = evaluate(code[node + 3], environment);
+                environment.assignAt(code[node + 1], code[node + 2], value);
+                return value;
+            }
+
+            case FlatAst.ASSIGN_GLOBAL: {
+                Object value = evaluate(code[node + 2], environment);
+                globals.assign(code[node + 1], FlatAst.line(code[node]), value);
+                return value;
+            }
+
+            case FlatAst.ADD: {
+                Object left = evaluate(code[node + 1], environment);
+                Object right = evaluate(code[node + 2], environment);
+                if(left instanceof Double && right instanceof Double) return (Double) left + (Double) right;
+                if(left instanceof CharSequence && right instanceof CharSequence){
+                    return Rope.concat((CharSequence) left, (CharSequence) right);
+                }
+                return Interpreter.binary(operator(node), left, right);
+            }
+
+            case FlatAst.SUBTRACT: {
+                Object left = evaluate(code[node + 1], environment);
+                Object right = evaluate(code[node + 2], environment);
+                if(left instanceof Double && right instanceof Double) return (Double) left - (Double) right;
+                return Interpreter.binary(operator(node), left, right);
+            }
+
+            case FlatAst.MULTIPLY: {
+                Object left = evaluate(code[node + 1], environment);
+                Object right = evaluate(code[node + 2], environment);
+                if(left instanceof Double && right instanceof Double) return (Double) left * (Double) right;
+                return Interpreter.binary(operator(node), left, right);
+            }
+
+            // dividing by zero is an error, Interpreter.binary reports it.
+            case FlatAst.DIVIDE: {
+                Object left = evaluate(code[node + 1], environment);
+                Object right = evaluate(code[node + 2], environment);
+                if(left instanceof Double && right instanceof Double && (Double) right != 0) return (Double) left / (Double) right;
+                return Interpreter.binary(operator(node), left, right);
+            }
+
+            case FlatAst.LESS:
+            case FlatAst.LESS_EQUAL:
+            case FlatAst.GREATER:
+            case FlatAst.GREATER_EQUAL:
+            case FlatAst.EQUAL:
+            case FlatAst.NOT_EQUAL:
+            case FlatAst.AND:
+            case FlatAst.OR:
+            case FlatAst.NOT:
+                return condition(node, environment);
+
+            case FlatAst.NEGATE: {
+                Object value = evaluate(code[node + 1], environment);
+                if(value instanceof Double) return -(Double) value;
+                return Interpreter.unary(operator(node), value);
+            }
+
+            case FlatAst.CALL: {
+                Object callee = evaluate(code[node + 1], environment);
+                return call(node, callee, arguments(node + 2, environment));
+            }
+
+            case FlatAst.INVOKE: return invoke(node, environment);
+
+            case FlatAst.GET: {
+                Object object = evaluate(code[node + 3], environment);
+                Site site = site(node, code[node + 2], FlatAst.line(code[node]));
+                return site.cache.get(object, site.name);
+            }
+
+            case FlatAst.SET: {
+                Object object = evaluate(code[node + 3], environment);
+                Object value = evaluate(code[node + 4], environment);
+                Site site = site(node, code[node + 2], FlatAst.line(code[node]));
+                return site.cache.set(object, site.name, value);
+            }
+
+            case FlatAst.SUPER: {
+                LoxClass superclass = (LoxClass) environment.getAt(code[node + 3], code[node + 4]);
+                LoxInstance instance = (LoxInstance) environment.getAt(code[node + 5], code[node + 6]);
+                Site site = site(node, code[node + 2], FlatAst.line(code[node]));
+                return site.cache.getSuper(superclass, instance, site.name);
+            }
+        }
+
+        throw new IllegalStateException("Not an expression: " + kind);
+    }
+
+    /// evaluates a condition without boxing the comparisons and the logical operators, which always produce a
+    /// boolean like they do in the tree-walking Interpreter.
+    private boolean condition(int node, Environment environment){
+        int[] code = this.code;
+        int kind = FlatAst.kind(code[node]);
+        switch (kind) {
+            case FlatAst.TRUE: return true;
+            case FlatAst.FALSE: return false;
+
+            case FlatAst.LESS:
+            case FlatAst.LESS_EQUAL:
+            case FlatAst.GREATER:
+            case FlatAst.GREATER_EQUAL:
+            case FlatAst.EQUAL:
+            case FlatAst.NOT_EQUAL: {
+                Object left = evaluate(code[node + 1], environment);
+                Object right = evaluate(code[node + 2], environment);
+                if(!(left instanceof Double && right instanceof Double)){
+                    return Interpreter.isTruthy(Interpreter.binary(operator(node), left, right));
+                }
+                double a = (Double) left;
+                double b = (Double) right;
+                switch (kind) {
+                    case FlatAst.LESS: return a < b;
+                    case FlatAst.LESS_EQUAL: return a <= b;
+                    case FlatAst.GREATER: return a > b;
+                    case FlatAst.GREATER_EQUAL: return a >= b;
+                    // equality follows Double.equals like Interpreter.isEqual.
+                    case FlatAst.EQUAL: return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
+                    default: return Double.doubleToLongBits(a) != Double.doubleToLongBits(b);
+                }
+            }
+
+            case FlatAst.AND: return condition(code[node + 1], environment) && condition(code[node + 2], environment);
+            case FlatAst.OR: return condition(code[node + 1], environment) || condition(code[node + 2], environment);
+            case FlatAst.NOT: return !condition(code[node + 1], environment);
+        }
+
+        return Interpreter.isTruthy(evaluate(node, environment));
+    }
+
+    /// the values of the arguments listed at the index, a count followed by that many nodes.
+    private List<Object> arguments(int list, Environment environment){
+        int[] code = this.code;
+        int count = code[list];
+        List<Object> values = new ArrayList<Object>(count);
+        for(int i = 1; i <= count; i++){
+            values.add(evaluate(code[list + i], environment));
+        }
+        return values;
+    }
+
+    private Object call(int node, Object callee, List<Object> arguments){
+        if(!(callee instanceof LoxCallable)){
+            throw new RuntimeError(paren(node), "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable) callee;
+        checkArity(node, function.arity(), arguments.size());
+
+        enterCall(node);
+        // there is no tree-walking Interpreter behind this engine, none of the callables it can reach use it.
+        Object result;
+        try {
+            result = function.call(null, arguments);
+        } catch (StackOverflowError error) {
+            throw Interpreter.stackOverflow(paren(node));
+        }
+        depth--;
+        return result;
+    }
+
+    /// 'object.name(arguments)', a method of the instance's class gets the instance as 'this' without being bound
+    /// to it first. like clox, the arguments are evaluated before the method is looked up.
+    private Object invoke(int node, Environment environment){
+        int[] code = this.code;
+        Object object = evaluate(code[node + 4], environment);
+        List<Object> arguments = arguments(node + 5, environment);
+        Site site = site(node, code[node + 3], code[node + 2]);
+
+        if(object instanceof LoxInstance){
+            LoxMethod method = site.cache.method((LoxInstance) object, site.name);
+            if(method instanceof FlatFunction){
+                checkArity(node, method.arity(), arguments.size());
+                enterCall(node);
+                Object result;
+                try {
+                    result = ((FlatFunction) method).invoke((LoxInstance) object, arguments);
+                } catch (StackOverflowError error) {
+                    throw Interpreter.stackOverflow(paren(node));
+                }
+                depth--;
+                return result;
+            }
+        }
+        return call(node, site.cache.get(object, site.name), arguments);
+    }
+
+    /// 'return f(x);' leaves the call to the FlatFunction being returned from when f is one, the value returned is
+    /// then TAIL_CALL and FlatFunction.finish makes the call once the current body is done, so tail calls don't
+    /// grow the stack. like the tree-walking Interpreter's.
+    private Object tailCall(int node, Environment environment){
+        Object callee = evaluate(code[node + 1], environment);
+        List<Object> arguments = arguments(node + 2, environment);
+        if(callee instanceof FlatFunction && ((FlatFunction) callee).arity() == arguments.size()){
+            FlatFunction function = (FlatFunction) callee;
+            return tailCall(function, function.receiver, arguments);
+        }
+        return call(node, callee, arguments);
+    }
+
+    /// the tail call of 'return object.name(arguments);', a method of the instance's class is left to
+    /// FlatFunction.finish, anything else is invoked right away.
+    private Object tailInvoke(int node, Environment environment){
+        int[] code = this.code;
+        Object object = evaluate(code[node + 4], environment);
+        List<Object> arguments = arguments(node + 5, environment);
+        Site site = site(node, code[node + 3], code[node + 2]);
+
+        if(object instanceof LoxInstance){
+            LoxMethod method = site.cache.method((LoxInstance) object, site.name);
+            if(method instanceof FlatFunction && method.arity() == arguments.size()){
+                return tailCall((FlatFunction) method, (LoxInstance) object, arguments);
+            }
+        }
+        return call(node, site.cache.get(object, site.name), arguments);
+    }
+
+    private Object tailCall(FlatFunction function, LoxInstance receiver, List<Object> arguments){
+        tailFunction = function;
+        tailReceiver = receiver;
+        tailArguments = arguments;
+        return Interpreter.Completion.TAIL_CALL;
+    }
+
+    FlatFunction takeTailFunction(){
+        FlatFunction function = tailFunction;
+        tailFunction = null;
+        return function;
+    }
+
+    LoxInstance takeTailReceiver(){
+        LoxInstance receiver = tailReceiver;
+        tailReceiver = null;
+        return receiver;
+    }
+
+    List<Object> takeTailArguments(){
+        List<Object> arguments = tailArguments;
+        tailArguments = null;
+        return arguments;
+    }
+
+    private void checkArity(int node, int arity, int count){
+        if(count != arity){
+            throw new RuntimeError(paren(node), "Expected " + arity + "arguments but got " + count + ".");
+        }
+    }
+
+    /// counts a call that is about to be made, deeper recursion than maxDepth is a runtime error instead of a
+    /// StackOverflowError. a call that fails isn't counted back down, the next run starts from zero.
+    private void enterCall(int node){
+        if(++depth > maxDepth){
+            throw Interpreter.stackOverflow(paren(node));
+        }
+    }
+
+    private Site site(int node, int index, int line){
+        Site site = sites[index];
+        if(site == null){
+            int symbol = code[node + 1];
+            site = new Site(new Token(TokenType.IDENTIFIER, Symbols.name(symbol), null, line, symbol));
+            sites[index] = site;
+        }
+        return site;
+    }
+
+    // the Tokens errors are reported with, made from the line of the node.
+
+    private Token operator(int node){
+        int header = code[node];
+        TokenType type = FlatAst.operator(FlatAst.kind(header));
+        return new Token(type, type.name(), null, FlatAst.line(header), -1);
+    }
+
+    private Token paren(int node){
+        return new Token(TokenType.RIGHT_PAREN, ")", null, FlatAst.line(code[node]), -1);
+    }
+
+    /// the name of a variable node, a superclass.
+    private Token name(int node){
+        return new Token(TokenType.IDENTIFIER, "", null, FlatAst.line(code[node]), -1);
+    }
+}
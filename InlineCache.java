@@ -0,0 +1,108 @@
+/// the cache of a single property access site, remembers what the property was in the last few shapes seen there:
+/// the slot of a field, or the method of the class. a site that only ever sees instances of one layout hits the
+/// first entry and does an array access instead of a lookup by name, a site that saw more than ENTRIES shapes is
+/// megamorphic and asks the shape every time.
+final class InlineCache {
+    private static final int ENTRIES = 4;
+
+    private final Shape[] shapes = new Shape[ENTRIES];
+    // -1 when the property is a method.
+    private final int[] slots = new int[ENTRIES];
+    private final LoxMethod[] methods = new LoxMethod[ENTRIES];
+    // for a set, the shape the instance moves to when the field is new to it, null when it already has it.
+    private final Shape[] transitions = new Shape[ENTRIES];
+    private int count = 0;
+
+    Object get(Object object, Token name){
+        if(!(object instanceof LoxInstance)){
+            throw new RuntimeError(name, "Only instances have properties.");
+        }
+
+        LoxInstance instance = (LoxInstance) object;
+        Shape shape = instance.shape;
+        for(int i = 0; i < count; i++){
+            if(shapes[i] == shape){
+                if(slots[i] == -1) return methods[i].bind(instance);
+                return instance.fields[slots[i]];
+            }
+        }
+
+        // fields shadow methods.
+        int slot = shape.slot(name.lexeme);
+        if(slot != -1){
+            remember(shape, slot, null, null);
+            return instance.fields[slot];
+        }
+        return lookUpMethod(shape, name).bind(instance);
+    }
+
+    /// the method an invoke site calls on the instance, null when the name is one of its fields.
+    LoxMethod method(LoxInstance instance, Token name){
+        Shape shape = instance.shape;
+        for(int i = 0; i < count; i++){
+            if(shapes[i] == shape) return methods[i];
+        }
+
+        int slot = shape.slot(name.lexeme);
+        if(slot != -1){
+            remember(shape, slot, null, null);
+            return null;
+        }
+        return lookUpMethod(shape, name);
+    }
+
+    /// the method of the superclass a 'super' expression refers to, bound to the current instance. the superclass's
+    /// own shape stands for its methods in the cache.
+    Object getSuper(LoxClass superclass, LoxInstance instance, Token name){
+        Shape shape = superclass.shape;
+        for(int i = 0; i < count; i++){
+            if(shapes[i] == shape) return methods[i].bind(instance);
+        }
+        return lookUpMethod(shape, name).bind(instance);
+    }
+
+    private LoxMethod lookUpMethod(Shape shape, Token name){
+        LoxMethod method = shape.klass.findMethod(name.lexeme);
+        if(method == null){
+            throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        }
+        remember(shape, -1, null, method);
+        return method;
+    }
+
+    Object set(Object object, Token name, Object value){
+        if(!(object instanceof LoxInstance)){
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+
+        LoxInstance instance = (LoxInstance) object;
+        Shape shape = instance.shape;
+        for(int i = 0; i < count; i++){
+            if(shapes[i] == shape){
+                if(transitions[i] != null) instance.reshape(transitions[i]);
+                instance.fields[slots[i]] = value;
+                return value;
+            }
+        }
+
+        int slot = shape.slot(name.lexeme);
+        Shape transition = null;
+        if(slot == -1){
+            transition = shape.with(name.lexeme);
+            slot = shape.size();
+            instance.reshape(transition);
+        }
+        remember(shape, slot, transition, null);
+        instance.fields[slot] = value;
+        return value;
+    }
+
+    private void remember(Shape shape, int slot, Shape transition, LoxMethod method){
+        if(count == ENTRIES) return;
+        shapes[count] = shape;
+        slots[count] = slot;
+        transitions[count] = transition;
+        methods[count] = method;
+        count++;
+    }
+}
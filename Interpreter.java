@@ -3,17 +3,44 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+public class Interpreter implements Engine, Expr.Visitor<Object>, Stmt.Visitor<Interpreter.Completion> {
 
     final Environment globals = new Environment();
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<Expr,Integer>();
+    // whether hot functions get compiled to JVM bytecode, see LoxFunction.
+    final boolean jit;
+    // how many calls may be in progress at once, every call still takes room on the Java stack.
+    private final int maxDepth;
+    private int depth = 0;
+    // the value of the return statement that completed with RETURN, until the function call takes it.
+    private Object returnValue = null;
+    // the call a return statement completed with TAIL_CALL on, until the function call makes it.
+    private LoxFunction tailFunction = null;
+    private LoxInstance tailReceiver = null;
+    private List<Object> tailArguments = null;
+    // the way evaluateNumber() hands back a value that wasn't a number.
+    private boolean notANumber = false;
+    private Object nonNumber = null;
+
+    /// how a statement finished. a return statement completes with RETURN and every statement enclosing it passes that
+    /// on, so returning from a function is a plain value flowing back to LoxFunction.call instead of an exception.
+    /// 'return f(x);' completes with TAIL_CALL instead when f is a LoxFunction, the call is made by LoxFunction.call
+    /// once the current body is done, so tail calls don't grow the stack.
+    enum Completion {
+        NORMAL,
+        RETURN,
+        TAIL_CALL
+    }
 
-    Interpreter(){
+    Interpreter(boolean jit, int maxDepth){
+        this.jit = jit;
+        this.maxDepth = maxDepth;
         NativeFunctions.registerFunctions(globals);
     }
 
-    void interpret(List<Stmt> statements) {
+    @Override
+    public void interpret(List<Stmt> statements) {
+        depth = 0;
         try {
             for(Stmt statement : statements){
                 execute(statement);
@@ -25,56 +52,163 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        switch (expr.operator.type) {
+            // only the final result of an arithmetic expression is boxed, the operands are evaluated as doubles.
+            case MINUS:
+            case SLASH:
+            case STAR:
+            case PLUS: {
+                double result = arithmetic(expr);
+                if(notANumber) return takeNonNumber();
+                return result;
+            }
 
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                return comparison(expr);
+        }
 
-        switch (expr.operator.type) {
+        return binary(expr.operator, evaluate(expr.left), evaluate(expr.right));
+    }
+
+    private Object comparison(Expr.Binary expr) {
+        double left = evaluateNumber(expr.left);
+        if(notANumber) return binary(expr.operator, takeNonNumber(), evaluate(expr.right));
+        double right = evaluateNumber(expr.right);
+        if(notANumber) return binary(expr.operator, left, takeNonNumber());
+        return compare(expr.operator, left, right);
+    }
+
+    /// evaluates an expression that is expected to be a number without boxing it. when the value turns out not to be
+    /// a number, notANumber is set and the value is waiting in nonNumber for the caller to take the generic path.
+    private double evaluateNumber(Expr expr) {
+        // the leaves are read directly, that skips the visitor on the most common operands.
+        if(expr instanceof Expr.Variable){
+            Expr.Variable variable = (Expr.Variable) expr;
+            return unbox(lookUpVariable(variable.name, variable.depth, variable.slot));
+        }else if(expr instanceof Expr.Literal){
+            return unbox(((Expr.Literal) expr).value);
+        }else if(expr instanceof Expr.Binary){
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case MINUS:
+                case SLASH:
+                case STAR:
+                case PLUS:
+                    return arithmetic(binary);
+            }
+        }else if(expr instanceof Expr.Grouping){
+            return evaluateNumber(((Expr.Grouping) expr).expression);
+        }else if(expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.MINUS){
+            Expr.Unary unary = (Expr.Unary) expr;
+            double right = evaluateNumber(unary.right);
+            if(notANumber) return unbox(unary(unary.operator, takeNonNumber()));
+            return -right;
+        }
+
+        return unbox(evaluate(expr));
+    }
+
+    private double arithmetic(Expr.Binary expr) {
+        Token operator = expr.operator;
+        double left = evaluateNumber(expr.left);
+        if(notANumber) return unbox(binary(operator, takeNonNumber(), evaluate(expr.right)));
+        double right = evaluateNumber(expr.right);
+        if(notANumber) return unbox(binary(operator, left, takeNonNumber()));
+
+        switch (operator.type) {
+            case MINUS: return left - right;
+            case STAR: return left * right;
+            case PLUS: return left + right;
+            case SLASH:
+                if(right == 0) checkNumberOperands(operator, left, right);
+                return left / right;
+        }
+
+        throw new IllegalStateException("Not an arithmetic operator: " + operator.lexeme);
+    }
+
+    /// the comparisons of binary() on two numbers, equality follows Double.equals.
+    private static boolean compare(Token operator, double left, double right) {
+        switch (operator.type) {
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+            case EQUAL_EQUAL: return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+            case BANG_EQUAL: return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+        }
+
+        throw new IllegalStateException("Not a comparison: " + operator.lexeme);
+    }
+
+    private double unbox(Object value) {
+        if(value instanceof Double) return (Double) value;
+        notANumber = true;
+        nonNumber = value;
+        return 0;
+    }
+
+    private Object takeNonNumber() {
+        Object value = nonNumber;
+        notANumber = false;
+        nonNumber = null;
+        return value;
+    }
+
+    // the operators are static so every engine shares the exact same semantics.
+    static Object binary(Token operator, Object left, Object right) {
+
+        switch (operator.type) {
 
             case MINUS:
-                checkNumberOperand(expr.operator, right);
+                checkNumberOperands(operator, left, right);
                 return (Double) left - (Double) right;
 
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (Double) left / (Double) right;
 
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (Double) left * (Double) right;
 
-            // the PLUS operator can both add numbers and concat Strings.
+            // the PLUS operator can both add numbers and concat strings, see Rope.
             case PLUS:
-                if (left instanceof String && right instanceof String)
-                    return (String) left + (String) right;
+                if (left instanceof CharSequence && right instanceof CharSequence)
+                    return Rope.concat((CharSequence) left, (CharSequence) right);
                 if (left instanceof Double && right instanceof Double)
                     return (Double) left + (Double) right;
-                if (left instanceof String || right instanceof String)
-                    return stringify(left) + stringify(right);
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+                if (left instanceof CharSequence || right instanceof CharSequence)
+                    return Rope.concat(text(left), text(right));
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
 
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (Double) left > (Double) right;
 
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (Double) left < (Double) right;
 
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (Double) left >= (Double) right;
 
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (Double) left <= (Double) right;
 
             case BANG_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return !isEqual(left, right);
 
             case EQUAL_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return isEqual(left, right);
 
         }
@@ -82,13 +216,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double)
             return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    static void checkNumberOperands(Token operator, Object left, Object right) {
         if (operator.type == TokenType.SLASH && right instanceof Double && (Double) right == 0)
             throw new RuntimeError(operator, "Division by zero.");
         if (left instanceof Double && right instanceof Double)
@@ -108,10 +242,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
+        if(expr.operator.type == TokenType.MINUS){
+            double right = evaluateNumber(expr.right);
+            if(notANumber) return unary(expr.operator, takeNonNumber());
+            return -right;
+        }
+        return unary(expr.operator, evaluate(expr.right));
+    }
 
-        switch (expr.operator.type) {
+    static Object unary(Token operator, Object right) {
+        switch (operator.type) {
             case MINUS:
+                checkNumberOperand(operator, right);
                 return -(Double) right;
 
             case BANG:
@@ -123,19 +265,18 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
     }
 
-    private Object lookUpVariable(Token name, Expr expr){
-        Integer distance = locals.get(expr);
-        if(distance != null){
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, int depth, int slot){
+        if(depth != -1){
+            return environment.getAt(depth, slot);
         }else{
             return globals.get(name);
         }
     }
 
-    private Boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         
         if (object == null)
             return false;
@@ -144,16 +285,26 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return true;
     }
 
-    private Boolean isEqual(Object left, Object right) {
+    static boolean isEqual(Object left, Object right) {
         if (left == null && right == null)
             return true;
         if (left == null)
             return false;
+        // a Rope is only equal to itself, two strings are compared by their characters.
+        if (left instanceof CharSequence && right instanceof CharSequence)
+            return left.toString().equals(right.toString());
 
         return left.equals(right);
     }
 
-    private String stringify(Object object) {
+    /// a string as it is, anything else stringified, for a concatenation.
+    private static CharSequence text(Object object) {
+        if (object instanceof CharSequence)
+            return (CharSequence) object;
+        return stringify(object);
+    }
+
+    static String stringify(Object object) {
         if (object == null)
             return "nil";
 
@@ -171,86 +322,100 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt){
-        stmt.accept(this);
+    private Completion execute(Stmt stmt){
+        return stmt.accept(this);
+    }
+
+    /// globals are stored by name, while locals go to the slot the Resolver gave them, in a new Cell when closures
+    /// capture them.
+    private void define(Token name, int slot, boolean captured, Object value){
+        if(environment == globals){
+            globals.define(name, value);
+        }else{
+            environment.define(slot, captured ? new Cell(value) : value);
+        }
     }
 
-    void resolve(Expr expr, int depth){
-        locals.put(expr, depth);
+    /// the Cell of a captured local function or class, defined before its closures are made since they may use it.
+    private Cell defineCell(int slot, boolean captured){
+        if(!captured || environment == globals) return null;
+        Cell cell = new Cell(null);
+        environment.define(slot, cell);
+        return cell;
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment){
+    Completion executeBlock(List<Stmt> statements, Environment environment){
         Environment previous = this.environment;
         try{
             this.environment = environment;
             for (Stmt stmt : statements) {
-                execute(stmt);
+                Completion completion = execute(stmt);
+                if(completion != Completion.NORMAL) return completion;
             }
+            return Completion.NORMAL;
         } finally{
             this.environment = previous;
         }
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
-        Object value = evaluate(stmt.expression);
-        return null;
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
+        evaluate(stmt.expression);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
 
         if(stmt.initializer != null){
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.name, stmt.slot, stmt.captured, value);
+        return Completion.NORMAL;
     }
     
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
 
-        Integer distance = locals.get(expr);
-        if(distance != null){
-            environment.assignAt(distance, expr.name, value);
+        if(expr.depth != -1){
+            environment.assignAt(expr.depth, expr.slot, value);
         }else{
-            environment.assign(expr.name, value);
+            globals.assign(expr.name, value);
         }
 
         return value;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if(!stmt.needsEnvironment) return executeBlock(stmt.statements, environment);
+        return executeBlock(stmt.statements, new Environment(Environment.NO_UPVALUES, stmt.slotCount));
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if(isTruthy(evaluate(stmt.expression))){
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         }else if(stmt.elseBranch != null){
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
 
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
-        Boolean leftValue = isTruthy(evaluate(expr.left));
+        boolean leftValue = isTruthy(evaluate(expr.left));
 
         if(expr.operator.type == TokenType.AND){
             if(leftValue == false) return leftValue;
@@ -262,60 +427,270 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while(isTruthy(evaluate(stmt.condition))){
-            execute(stmt.body);
+            Completion completion = execute(stmt.body);
+            if(completion != Completion.NORMAL) return completion;
         }
 
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
+        return call(this, expr.paren, callee, evaluateArguments(expr.arguments));
+    }
+
+    /// the body of a small function the Optimizer put in place of a call to it, the arguments go to the slots it
+    /// reserved in the current scope. once the global stops holding that function the site deoptimizes and makes
+    /// the call it replaced from then on.
+    @Override
+    public Object visitInlineExpr(Expr.Inline expr) {
+        if(expr.deoptimized) return visitCallExpr(expr.call);
+
+        Object callee = evaluate(expr.call.callee);
+        if(!(callee instanceof LoxFunction) || ((LoxFunction) callee).declaration != expr.function){
+            expr.deoptimized = true;
+            return call(this, expr.call.paren, callee, evaluateArguments(expr.call.arguments));
+        }
+
+        List<Expr> arguments = expr.call.arguments;
+        for(int i = 0; i < arguments.size(); i++){
+            environment.define(expr.base + i, evaluate(arguments.get(i)));
+        }
+        return evaluate(expr.body);
+    }
 
+    @Override
+    public Object visitGetExpr(Expr.Get expr) {
+        return expr.cache.get(evaluate(expr.object), expr.name);
+    }
+
+    @Override
+    public Object visitSetExpr(Expr.Set expr) {
+        Object object = evaluate(expr.object);
+        return expr.cache.set(object, expr.name, evaluate(expr.value));
+    }
+
+    @Override
+    public Object visitThisExpr(Expr.This expr) {
+        return environment.getAt(expr.depth, expr.slot);
+    }
+
+    @Override
+    public Object visitSuperExpr(Expr.Super expr) {
+        LoxClass superclass = (LoxClass) environment.getAt(expr.depth, expr.slot);
+        LoxInstance instance = (LoxInstance) environment.getAt(expr.thisDepth, expr.thisSlot);
+        return expr.cache.getSuper(superclass, instance, expr.method);
+    }
+
+    @Override
+    public Object visitInvokeExpr(Expr.Invoke expr) {
+        Object object = evaluate(expr.object);
+        return invoke(this, expr.cache, object, expr.name, expr.paren, evaluateArguments(expr.arguments));
+    }
+
+    private List<Object> evaluateArguments(List<Expr> expressions) {
         List<Object> arguments = new ArrayList<Object>();
-        for (Expr argument : expr.arguments) {
+        for (Expr argument : expressions) {
             arguments.add(evaluate(argument));
         }
+        return arguments;
+    }
 
+    static Object call(Interpreter interpreter, Token paren, Object callee, List<Object> arguments) {
         if(!(callee instanceof LoxCallable)){
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            throw new RuntimeError(paren, "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable)callee;
 
         if(arguments.size() != function.arity()){
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + "arguments but got " + arguments.size() + ".");
+            throw new RuntimeError(paren, "Expected " + function.arity() + "arguments but got " + arguments.size() + ".");
         }
 
-        return function.call(this, arguments);
+        interpreter.enterCall(paren);
+        Object result;
+        try {
+            result = function.call(interpreter, arguments);
+        } catch (StackOverflowError error) {
+            throw stackOverflow(paren);
+        }
+        interpreter.exitCall();
+        return result;
+    }
+
+    /// 'object.name(arguments)': a method of the instance's class is called with the instance as 'this' without
+    /// being bound first, like clox the arguments are evaluated before the method is looked up. a field is called
+    /// like any other value.
+    static Object invoke(Interpreter interpreter, InlineCache cache, Object object, Token name, Token paren, List<Object> arguments) {
+        if(object instanceof LoxInstance){
+            LoxMethod method = cache.method((LoxInstance) object, name);
+            if(method instanceof LoxFunction){
+                LoxFunction function = (LoxFunction) method;
+                if(arguments.size() != function.arity()){
+                    throw new RuntimeError(paren, "Expected " + function.arity() + "arguments but got " + arguments.size() + ".");
+                }
+
+                interpreter.enterCall(paren);
+                Object result;
+                try {
+                    result = function.invoke(interpreter, (LoxInstance) object, arguments);
+                } catch (StackOverflowError error) {
+                    throw stackOverflow(paren);
+                }
+                interpreter.exitCall();
+                return result;
+            }
+        }
+        return call(interpreter, paren, cache.get(object, name), arguments);
+    }
+
+    /// counts a call that is about to be made, deeper recursion than maxDepth is a runtime error instead of a
+    /// StackOverflowError. a call that fails isn't counted back down, the next interpret() starts from zero.
+    void enterCall(Token paren) {
+        if(++depth > maxDepth){
+            throw stackOverflow(paren);
+        }
+    }
+
+    /// the Java stack can still run out before maxDepth calls, when the frames of a function nest many expressions or
+    /// blocks, the calls catch that and report it the same way as going past maxDepth.
+    static RuntimeError stackOverflow(Token paren) {
+        return new RuntimeError(paren, "Stack overflow.");
+    }
+
+    void exitCall() {
+        depth--;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, function);
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        Cell cell = defineCell(stmt.slot, stmt.captured);
+        LoxFunction function = new LoxFunction(stmt, environment.closure(stmt.captures), false);
+        if(cell != null){
+            cell.value = function;
+        }else{
+            define(stmt.name, stmt.slot, false, function);
+        }
 
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.value instanceof Expr.Call || isDeoptimized(stmt.value)){
+            Expr.Call call = stmt.value instanceof Expr.Call ? (Expr.Call) stmt.value : ((Expr.Inline) stmt.value).call;
+            Object callee = evaluate(call.callee);
+            List<Object> arguments = evaluateArguments(call.arguments);
+            if(callee instanceof LoxFunction && ((LoxFunction) callee).arity() == arguments.size()){
+                LoxFunction function = (LoxFunction) callee;
+                return tailCall(function, function.receiver, arguments);
+            }
+            returnValue = call(this, call.paren, callee, arguments);
+            return Completion.RETURN;
+        }
+        if(stmt.value instanceof Expr.Invoke){
+            Expr.Invoke invoke = (Expr.Invoke) stmt.value;
+            Object object = evaluate(invoke.object);
+            Object result = tailInvoke(invoke.cache, object, invoke.name, invoke.paren, evaluateArguments(invoke.arguments));
+            if(result == Completion.TAIL_CALL) return Completion.TAIL_CALL;
+            returnValue = result;
+            return Completion.RETURN;
+        }
+
         Object value = null;
         if(stmt.value != null){
             value = evaluate(stmt.value);
         }
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
+    }
+
+    /// an inlined call that went back to being a call, it's a tail call again in a return statement.
+    static boolean isDeoptimized(Expr expr){
+        return expr instanceof Expr.Inline && ((Expr.Inline) expr).deoptimized;
+    }
+
+    Completion tailCall(LoxFunction function, LoxInstance receiver, List<Object> arguments){
+        tailFunction = function;
+        tailReceiver = receiver;
+        tailArguments = arguments;
+        return Completion.TAIL_CALL;
+    }
+
+    /// the tail call of 'return object.name(arguments);', a method of the instance's class is left to
+    /// LoxFunction.finish, anything else is invoked right away.
+    Object tailInvoke(InlineCache cache, Object object, Token name, Token paren, List<Object> arguments){
+        if(object instanceof LoxInstance){
+            LoxMethod method = cache.method((LoxInstance) object, name);
+            if(method instanceof LoxFunction && method.arity() == arguments.size()){
+                return tailCall((LoxFunction) method, (LoxInstance) object, arguments);
+            }
+        }
+        return invoke(this, cache, object, name, paren, arguments);
+    }
+
+    /// hands the pending tail call over to LoxFunction.call, which makes it.
+    LoxFunction takeTailFunction(){
+        LoxFunction function = tailFunction;
+        tailFunction = null;
+        return function;
+    }
+
+    LoxInstance takeTailReceiver(){
+        LoxInstance receiver = tailReceiver;
+        tailReceiver = null;
+        return receiver;
+    }
+
+    List<Object> takeTailArguments(){
+        List<Object> arguments = tailArguments;
+        tailArguments = null;
+        return arguments;
+    }
+
+    /// the value of the return statement that just completed, called by the function that returned.
+    Object takeReturnValue(){
+        Object value = returnValue;
+        returnValue = null;
+        return value;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
-        environment.define(stmt.name.lexeme, null);
-        LoxClass klass = new LoxClass(stmt.name.lexeme);
-        environment.assign(stmt.name, klass);
-        return null;
+    public Completion visitClassStmt(Stmt.Class stmt) {
+        LoxClass superclass = null;
+        if(stmt.superclass != null){
+            Object value = evaluate(stmt.superclass);
+            if(!(value instanceof LoxClass)){
+                throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+            }
+            superclass = (LoxClass) value;
+        }
+
+        Cell cell = defineCell(stmt.slot, stmt.captured);
+        // the methods of a subclass capture the superclass from the slot the Resolver gave 'super', in a frame of
+        // its own at the top level.
+        Environment frame = environment;
+        if(superclass != null){
+            if(frame == globals) frame = new Environment(Environment.NO_UPVALUES, 1);
+            frame.define(stmt.superSlot, new Cell(superclass));
+        }
+
+        Map<String, LoxFunction> methods = new HashMap<String, LoxFunction>();
+        for(Stmt.Function method : stmt.methods){
+            methods.put(method.name.lexeme, new LoxFunction(method, frame.closure(method.captures), method.name.lexeme.equals("init")));
+        }
+
+        LoxClass loxClass = new LoxClass(stmt.name.lexeme, superclass, methods);
+        if(cell != null){
+            cell.value = loxClass;
+        }else{
+            define(stmt.name, stmt.slot, false, loxClass);
+        }
+        return Completion.NORMAL;
     }
 
 }
\ No newline at end of file
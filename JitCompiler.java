@@ -0,0 +1,615 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/// compiles the body of a hot LoxFunction into a static method of a hidden class, so HotSpot can inline and
+/// optimize it like any other Java code. the function's locals become JVM locals, variables of enclosing functions
+/// are read from the cells of its upvalues and globals through the Interpreter's globals.
+///
+/// a call to a global that held a LoxFunction at compile time is made directly, guarded by the callableVersion of
+/// the globals. when the guard fails the call looks the global up like the interpreter would and the function is
+/// deoptimized, its next calls run in the interpreter until it gets hot again.
+final class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String TOKEN = "LToken;";
+    private static final String ENVIRONMENT = "LEnvironment;";
+    private static final String INTERPRETER = "LInterpreter;";
+    private static final String BINARY = "(" + OBJECT + OBJECT + TOKEN + ")" + OBJECT;
+    // holds the Tokens, literals and functions the compiled code refers to.
+    private static final String CONSTANTS = "K";
+
+    /// a construct the compiler doesn't handle, the function simply stays in the interpreter.
+    static class Bailout extends RuntimeException{
+        Bailout(String message){
+            super(message, null, false, false);
+        }
+    }
+
+    private final LoxFunction function;
+    private final Environment globals;
+    private final ClassFile classFile;
+    private final ClassFile.Code code = new ClassFile.Code();
+    private final String descriptor;
+    private final List<Object> constants = new ArrayList<Object>();
+    private int nextLocal;
+
+    private JitCompiler(LoxFunction function, Environment globals){
+        this.function = function;
+        this.globals = globals;
+        this.classFile = new ClassFile("LoxJit$" + function.declaration.name.lexeme);
+        this.descriptor = descriptor(parameterCount(function.declaration));
+    }
+
+    /// returns a (Interpreter, Object[]) -> Object handle running the function, null if it can't be compiled.
+    static MethodHandle compile(LoxFunction function, Environment globals){
+        try {
+            return new JitCompiler(function, globals).compile();
+        } catch (Bailout bailout) {
+            return null;
+        }
+    }
+
+    private MethodHandle compile(){
+        Stmt.Function declaration = function.declaration;
+        int arity = parameterCount(declaration);
+
+        // local 0 is the Interpreter, the parameters follow it and then the rest of the function's frame, which
+        // its blocks share. a method's first parameter is 'this'.
+        nextLocal = 1 + declaration.slotCount;
+        code.maxLocals = nextLocal;
+
+        for(Stmt stmt : declaration.body){
+            compile(stmt);
+        }
+        code.op(ClassFile.ACONST_NULL, 1);
+        code.op(ClassFile.ARETURN, -1);
+
+        classFile.addField(ClassFile.ACC_STATIC, CONSTANTS, "[" + OBJECT);
+        classFile.addMethod(ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, "invoke", descriptor, code);
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile.toBytes(), true);
+            Class<?> compiled = lookup.lookupClass();
+            lookup.findStaticSetter(compiled, CONSTANTS, Object[].class).invoke(constants.toArray());
+
+            MethodType type = MethodType.methodType(Object.class, Interpreter.class);
+            type = type.appendParameterTypes(Collections.nCopies(arity, Object.class));
+            return lookup.findStatic(compiled, "invoke", type).asSpreader(Object[].class, arity);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    private static int parameterCount(Stmt.Function declaration){
+        return declaration.params.size() + (declaration.isMethod ? 1 : 0);
+    }
+
+    private static String descriptor(int arity){
+        return "(" + INTERPRETER + OBJECT.repeat(arity) + ")" + OBJECT;
+    }
+
+    private void compile(Stmt stmt){
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr){
+        expr.accept(this);
+    }
+
+    // ---- emitting ----
+
+    private void invoke(int opcode, String owner, String name, String methodDescriptor){
+        int effect = 0;
+        for(int i = 1; methodDescriptor.charAt(i) != ')'; i++){
+            char c = methodDescriptor.charAt(i);
+            if(c == 'L') i = methodDescriptor.indexOf(';', i);
+            else if(c == '[') continue;
+            effect--;
+        }
+        if(opcode == ClassFile.INVOKEVIRTUAL) effect--;
+        if(!methodDescriptor.endsWith(")V")) effect++;
+        code.op(opcode, classFile.methodRef(owner, name, methodDescriptor), effect);
+    }
+
+    private void loadConstant(Object value, String type){
+        int index = -1;
+        for(int i = 0; i < constants.size(); i++){
+            if(constants.get(i) == value) index = i;
+        }
+        if(index == -1){
+            constants.add(value);
+            index = constants.size() - 1;
+        }
+
+        code.op(ClassFile.GETSTATIC, classFile.fieldRef(classFile.name, CONSTANTS, "[" + OBJECT), 1);
+        code.loadInt(index);
+        code.op(ClassFile.AALOAD, -1);
+        if(type != null) code.op(ClassFile.CHECKCAST, classFile.classRef(type), 0);
+    }
+
+    private void loadGlobals(){
+        code.load(0);
+        code.op(ClassFile.GETFIELD, classFile.fieldRef("Interpreter", "globals", ENVIRONMENT), 0);
+    }
+
+    private int allocateLocal(){
+        int local = nextLocal++;
+        if(nextLocal > code.maxLocals) code.maxLocals = nextLocal;
+        return local;
+    }
+
+    /// Interpreter.isTruthy of the value on top of the stack, as an int for the conditional jumps.
+    private void truthy(){
+        invoke(ClassFile.INVOKESTATIC, "Interpreter", "isTruthy", "(" + OBJECT + ")Z");
+    }
+
+    private void box(){
+        invoke(ClassFile.INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+    }
+
+    // ---- variables ----
+
+    /// the JVM local of a slot of the function's frame. nothing the function declares is captured, a function
+    /// with closures in it isn't compiled.
+    private static int localOf(int slot){
+        return 1 + slot;
+    }
+
+    /// the Cell of one of the upvalues, which belong to this closure of the function only.
+    private void loadUpvalue(int slot){
+        loadConstant(function.upvalues[slot], "Cell");
+    }
+
+    private void variable(Token name, int depth, int slot){
+        if(depth == -1){
+            loadGlobals();
+            loadConstant(name, "Token");
+            invoke(ClassFile.INVOKEVIRTUAL, "Environment", "get", "(" + TOKEN + ")" + OBJECT);
+            return;
+        }
+
+        if(depth == 0){
+            code.load(localOf(slot));
+            return;
+        }
+
+        loadUpvalue(slot);
+        code.op(ClassFile.GETFIELD, classFile.fieldRef("Cell", "value", OBJECT), 0);
+    }
+
+    // ---- statements ----
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        for(Stmt statement : stmt.statements){
+            compile(statement);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        // methods are closed over the scope they are declared in, which lives in JVM locals here.
+        if(stmt.superclass != null || !stmt.methods.isEmpty()) throw new Bailout("class with methods");
+        loadConstant(stmt.name.lexeme, null);
+        code.op(ClassFile.CHECKCAST, classFile.classRef("java/lang/String"), 0);
+        invoke(ClassFile.INVOKESTATIC, "JitRuntime", "newClass", "(Ljava/lang/String;)" + OBJECT);
+        code.store(localOf(stmt.slot));
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        code.op(ClassFile.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if(stmt.initializer != null){
+            compile(stmt.initializer);
+        }else{
+            code.op(ClassFile.ACONST_NULL, 1);
+        }
+        code.store(localOf(stmt.slot));
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.value instanceof Expr.Call){
+            call((Expr.Call) stmt.value, true);
+            return null;
+        }
+        if(Interpreter.isDeoptimized(stmt.value)){
+            call(((Expr.Inline) stmt.value).call, true);
+            return null;
+        }
+        if(stmt.value instanceof Expr.Invoke){
+            invoke((Expr.Invoke) stmt.value, true);
+            return null;
+        }
+
+        if(stmt.value != null){
+            compile(stmt.value);
+        }else{
+            code.op(ClassFile.ACONST_NULL, 1);
+        }
+        code.op(ClassFile.ARETURN, -1);
+        return null;
+    }
+
+    // a nested function closes over the locals, which would have to live in an Environment instead of JVM locals.
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Bailout("nested function");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.expression);
+        truthy();
+        int elseJump = code.jump(ClassFile.IFEQ, -1);
+        compile(stmt.thenBranch);
+        int endJump = code.jump(ClassFile.GOTO, 0);
+        code.patch(elseJump);
+        if(stmt.elseBranch != null){
+            compile(stmt.elseBranch);
+        }
+        code.patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        invoke(ClassFile.INVOKESTATIC, "JitRuntime", "print", "(" + OBJECT + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = code.length;
+        compile(stmt.condition);
+        truthy();
+        int exitJump = code.jump(ClassFile.IFEQ, -1);
+        compile(stmt.body);
+        code.jumpBack(ClassFile.GOTO, loopStart, 0);
+        code.patch(exitJump);
+        return null;
+    }
+
+    // ---- expressions ----
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+
+        if(expr.depth == -1){
+            loadGlobals();
+            loadConstant(expr.name, "Token");
+            invoke(ClassFile.INVOKESTATIC, "JitRuntime", "assignGlobal", "(" + OBJECT + ENVIRONMENT + TOKEN + ")" + OBJECT);
+            return null;
+        }
+
+        code.op(ClassFile.DUP, 1);
+        if(expr.depth == 0){
+            code.store(localOf(expr.slot));
+            return null;
+        }
+
+        loadUpvalue(expr.slot);
+        code.op(ClassFile.SWAP, 0);
+        code.op(ClassFile.PUTFIELD, classFile.fieldRef("Cell", "value", OBJECT), -2);
+        return null;
+    }
+
+    // the site's InlineCache is shared with the interpreter, the shapes it saw before the function was compiled are
+    // still good.
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        loadConstant(expr.cache, "InlineCache");
+        compile(expr.object);
+        loadConstant(expr.name, "Token");
+        invoke(ClassFile.INVOKEVIRTUAL, "InlineCache", "get", "(" + OBJECT + TOKEN + ")" + OBJECT);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        loadConstant(expr.cache, "InlineCache");
+        compile(expr.object);
+        loadConstant(expr.name, "Token");
+        compile(expr.value);
+        invoke(ClassFile.INVOKEVIRTUAL, "InlineCache", "set", "(" + OBJECT + TOKEN + OBJECT + ")" + OBJECT);
+        return null;
+    }
+
+    @Override
+    public Void visitInvokeExpr(Expr.Invoke expr) {
+        invoke(expr, false);
+        return null;
+    }
+
+    private void invoke(Expr.Invoke expr, boolean tail){
+        code.load(0);
+        loadConstant(expr.cache, "InlineCache");
+        compile(expr.object);
+        loadConstant(expr.name, "Token");
+        arguments(expr.arguments, null);
+        loadConstant(expr.paren, "Token");
+        String helper = tail ? "tailInvoke" : "invoke";
+        invoke(ClassFile.INVOKESTATIC, "JitRuntime", helper,
+            "(" + INTERPRETER + "LInlineCache;" + OBJECT + TOKEN + "[" + OBJECT + TOKEN + ")" + OBJECT);
+        if(tail) code.op(ClassFile.ARETURN, -1);
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        variable(expr.keyword, expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        loadConstant(expr.cache, "InlineCache");
+        variable(expr.keyword, expr.depth, expr.slot);
+        code.op(ClassFile.CHECKCAST, classFile.classRef("LoxClass"), 0);
+        variable(expr.keyword, expr.thisDepth, expr.thisSlot);
+        code.op(ClassFile.CHECKCAST, classFile.classRef("LoxInstance"), 0);
+        loadConstant(expr.method, "Token");
+        invoke(ClassFile.INVOKEVIRTUAL, "InlineCache", "getSuper", "(LLoxClass;LLoxInstance;" + TOKEN + ")" + OBJECT);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        loadConstant(expr.operator, "Token");
+
+        String helper;
+        switch (expr.operator.type) {
+            case PLUS: helper = "add"; break;
+            case MINUS: helper = "subtract"; break;
+            case STAR: helper = "multiply"; break;
+            case SLASH: helper = "divide"; break;
+            case GREATER: helper = "greater"; break;
+            case GREATER_EQUAL: helper = "greaterEqual"; break;
+            case LESS: helper = "less"; break;
+            case LESS_EQUAL: helper = "lessEqual"; break;
+            case EQUAL_EQUAL: helper = "equal"; break;
+            case BANG_EQUAL: helper = "notEqual"; break;
+            default: throw new Bailout("unknown binary operator");
+        }
+        invoke(ClassFile.INVOKESTATIC, "JitRuntime", helper, BINARY);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        call(expr, false);
+        return null;
+    }
+
+    /// a tail call leaves the method: a call to the function itself jumps back to the start of the body with new
+    /// arguments, any other one is handed back to LoxFunction.finish as a TAIL_CALL, like the interpreter does.
+    /// a 'memo fun' calling itself goes through LoxFunction.invoke like any other target, to use its cache.
+    private void call(Expr.Call expr, boolean tail){
+        LoxFunction target = speculatedTarget(expr);
+        boolean self = target == function && function.declaration.memo == null;
+        if(target == null || (tail && !self)){
+            code.load(0);
+            compile(expr.callee);
+            arguments(expr.arguments, null);
+            loadConstant(expr.paren, "Token");
+            String helper = tail ? "tailCall" : "call";
+            invoke(ClassFile.INVOKESTATIC, "JitRuntime", helper, "(" + INTERPRETER + OBJECT + "[" + OBJECT + TOKEN + ")" + OBJECT);
+            if(tail) code.op(ClassFile.ARETURN, -1);
+            return;
+        }
+
+        // the callee is read before the arguments, like the interpreter does. while the guard holds that's the
+        // target itself, without a single lookup.
+        int height = code.stack;
+        loadGlobals();
+        code.op(ClassFile.GETFIELD, classFile.fieldRef("Environment", "callableVersion", "I"), 0);
+        code.loadInt(globals.callableVersion);
+        int slowJump = code.jump(ClassFile.IF_ICMPNE, -2);
+        loadConstant(target, null);
+        int calleeJump = code.jump(ClassFile.GOTO, 0);
+
+        code.stack = height;
+        code.patch(slowJump);
+        loadConstant(function, "LoxFunction");
+        invoke(ClassFile.INVOKESTATIC, "JitRuntime", "deoptimize", "(LLoxFunction;)V");
+        compile(expr.callee);
+        code.patch(calleeJump);
+
+        int callee = allocateLocal();
+        code.store(callee);
+
+        int[] arguments = new int[expr.arguments.size()];
+        for(int i = 0; i < arguments.length; i++){
+            compile(expr.arguments.get(i));
+            arguments[i] = allocateLocal();
+            code.store(arguments[i]);
+        }
+
+        code.load(callee);
+        loadConstant(target, null);
+        int genericJump = code.jump(ClassFile.IF_ACMPNE, -2);
+        int endJump = -1;
+        if(tail){
+            for(int i = 0; i < arguments.length; i++){
+                code.load(arguments[i]);
+                code.store(1 + i);
+            }
+            code.jumpBack(ClassFile.GOTO, 0, 0);
+        }else{
+            // direct calls skip Interpreter.call, so they count themselves against the maximum depth.
+            code.load(0);
+            loadConstant(expr.paren, "Token");
+            invoke(ClassFile.INVOKEVIRTUAL, "Interpreter", "enterCall", "(" + TOKEN + ")V");
+            if(self){
+                code.load(0);
+                code.load(0);
+                for(int argument : arguments) code.load(argument);
+                invoke(ClassFile.INVOKESTATIC, classFile.name, "invoke", descriptor);
+                invoke(ClassFile.INVOKESTATIC, "LoxFunction", "finish", "(" + INTERPRETER + OBJECT + ")" + OBJECT);
+            }else{
+                loadConstant(target, "LoxFunction");
+                code.load(0);
+                arguments(null, arguments);
+                invoke(ClassFile.INVOKEVIRTUAL, "LoxFunction", "invoke", "(" + INTERPRETER + "[" + OBJECT + ")" + OBJECT);
+            }
+            code.load(0);
+            invoke(ClassFile.INVOKEVIRTUAL, "Interpreter", "exitCall", "()V");
+            endJump = code.jump(ClassFile.GOTO, 0);
+        }
+
+        code.stack = height;
+        code.patch(genericJump);
+        code.load(0);
+        code.load(callee);
+        arguments(null, arguments);
+        loadConstant(expr.paren, "Token");
+        String helper = tail ? "tailCall" : "call";
+        invoke(ClassFile.INVOKESTATIC, "JitRuntime", helper, "(" + INTERPRETER + OBJECT + "[" + OBJECT + TOKEN + ")" + OBJECT);
+        if(tail) code.op(ClassFile.ARETURN, -1);
+        else code.patch(endJump);
+
+        nextLocal -= arguments.length + 1;
+    }
+
+    /// the inlined body runs behind the same guard as in the interpreter, its arguments stored in the JVM locals of
+    /// the slots the Optimizer reserved. when the guard fails the function deoptimizes and the call is made instead.
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        if(expr.deoptimized){
+            call(expr.call, false);
+            return null;
+        }
+
+        int height = code.stack;
+        compile(expr.call.callee);
+        int callee = allocateLocal();
+        code.store(callee);
+        code.load(callee);
+        loadConstant(expr.function, null);
+        invoke(ClassFile.INVOKESTATIC, "JitRuntime", "isInlined", "(" + OBJECT + OBJECT + ")Z");
+        int slowJump = code.jump(ClassFile.IFEQ, -1);
+
+        List<Expr> arguments = expr.call.arguments;
+        for(int i = 0; i < arguments.size(); i++){
+            compile(arguments.get(i));
+            code.store(localOf(expr.base + i));
+        }
+        compile(expr.body);
+        int endJump = code.jump(ClassFile.GOTO, 0);
+
+        code.stack = height;
+        code.patch(slowJump);
+        loadConstant(function, "LoxFunction");
+        invoke(ClassFile.INVOKESTATIC, "JitRuntime", "deoptimize", "(LLoxFunction;)V");
+        code.load(0);
+        code.load(callee);
+        arguments(arguments, null);
+        loadConstant(expr.call.paren, "Token");
+        invoke(ClassFile.INVOKESTATIC, "JitRuntime", "call", "(" + INTERPRETER + OBJECT + "[" + OBJECT + TOKEN + ")" + OBJECT);
+        code.patch(endJump);
+
+        nextLocal--;
+        return null;
+    }
+
+    /// the function a call can be made to directly, a global LoxFunction taking as many arguments as the call passes.
+    private LoxFunction speculatedTarget(Expr.Call expr){
+        if(!(expr.callee instanceof Expr.Variable)) return null;
+        Expr.Variable callee = (Expr.Variable) expr.callee;
+        if(callee.depth != -1) return null;
+
+        Object value = globals.peek(callee.name);
+        if(!(value instanceof LoxFunction)) return null;
+        LoxFunction target = (LoxFunction) value;
+        return target.arity() == expr.arguments.size() ? target : null;
+    }
+
+    /// builds the Object[] of a call, either by evaluating the expressions or from the locals they were stored in.
+    private void arguments(List<Expr> expressions, int[] locals){
+        int count = expressions != null ? expressions.size() : locals.length;
+        code.loadInt(count);
+        code.op(ClassFile.ANEWARRAY, classFile.classRef("java/lang/Object"), 0);
+        for(int i = 0; i < count; i++){
+            code.op(ClassFile.DUP, 1);
+            code.loadInt(i);
+            if(expressions != null) compile(expressions.get(i));
+            else code.load(locals[i]);
+            code.op(ClassFile.AASTORE, -3);
+        }
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null){
+            code.op(ClassFile.ACONST_NULL, 1);
+        }else if(expr.value instanceof Boolean){
+            String name = (Boolean) expr.value ? "TRUE" : "FALSE";
+            code.op(ClassFile.GETSTATIC, classFile.fieldRef("java/lang/Boolean", name, "Ljava/lang/Boolean;"), 1);
+        }else{
+            loadConstant(expr.value, null);
+        }
+        return null;
+    }
+
+    // 'and' and 'or' produce booleans in jLox, not the operand that decided them.
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        truthy();
+        int height = code.stack - 1;
+        boolean and = expr.operator.type == TokenType.AND;
+        int shortCircuit = code.jump(and ? ClassFile.IFEQ : ClassFile.IFNE, -1);
+        compile(expr.right);
+        truthy();
+        box();
+        int endJump = code.jump(ClassFile.GOTO, 0);
+
+        code.stack = height;
+        code.patch(shortCircuit);
+        code.op(ClassFile.GETSTATIC, classFile.fieldRef("java/lang/Boolean", and ? "FALSE" : "TRUE", "Ljava/lang/Boolean;"), 1);
+        code.patch(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        if(expr.operator.type == TokenType.BANG){
+            invoke(ClassFile.INVOKESTATIC, "JitRuntime", "not", "(" + OBJECT + ")" + OBJECT);
+        }else{
+            loadConstant(expr.operator, "Token");
+            invoke(ClassFile.INVOKESTATIC, "JitRuntime", "negate", "(" + OBJECT + TOKEN + ")" + OBJECT);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        variable(expr.name, expr.depth, expr.slot);
+        return null;
+    }
+}
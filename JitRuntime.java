@@ -0,0 +1,113 @@
+import java.util.Arrays;
+import java.util.Collections;
+
+/// the helpers called from code compiled by the JitCompiler. the operators take the fast path on numbers and
+/// defer to the Interpreter for everything else, so compiled code reports exactly the same errors.
+final class JitRuntime {
+
+    private JitRuntime(){}
+
+    static Object add(Object left, Object right, Token operator){
+        if(left instanceof Double && right instanceof Double) return (Double) left + (Double) right;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object subtract(Object left, Object right, Token operator){
+        if(left instanceof Double && right instanceof Double) return (Double) left - (Double) right;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object multiply(Object left, Object right, Token operator){
+        if(left instanceof Double && right instanceof Double) return (Double) left * (Double) right;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    // a zero divisor is an error in jLox, the Interpreter reports it.
+    static Object divide(Object left, Object right, Token operator){
+        if(left instanceof Double && right instanceof Double && (Double) right != 0) return (Double) left / (Double) right;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object greater(Object left, Object right, Token operator){
+        if(left instanceof Double && right instanceof Double) return (Double) left > (Double) right;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object greaterEqual(Object left, Object right, Token operator){
+        if(left instanceof Double && right instanceof Double) return (Double) left >= (Double) right;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object less(Object left, Object right, Token operator){
+        if(left instanceof Double && right instanceof Double) return (Double) left < (Double) right;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object lessEqual(Object left, Object right, Token operator){
+        if(left instanceof Double && right instanceof Double) return (Double) left <= (Double) right;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object equal(Object left, Object right, Token operator){
+        if(left instanceof Double && right instanceof Double) return left.equals(right);
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object notEqual(Object left, Object right, Token operator){
+        if(left instanceof Double && right instanceof Double) return !left.equals(right);
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object negate(Object right, Token operator){
+        if(right instanceof Double) return -(Double) right;
+        return Interpreter.unary(operator, right);
+    }
+
+    static Object not(Object right){
+        return !Interpreter.isTruthy(right);
+    }
+
+    static void print(Object value){
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    static Object call(Interpreter interpreter, Object callee, Object[] arguments, Token paren){
+        return Interpreter.call(interpreter, paren, callee, Arrays.asList(arguments));
+    }
+
+    /// the tail call of a return statement, a LoxFunction is left to LoxFunction.finish like in the interpreter.
+    static Object tailCall(Interpreter interpreter, Object callee, Object[] arguments, Token paren){
+        if(callee instanceof LoxFunction && ((LoxFunction) callee).arity() == arguments.length){
+            LoxFunction function = (LoxFunction) callee;
+            return interpreter.tailCall(function, function.receiver, Arrays.asList(arguments));
+        }
+        return Interpreter.call(interpreter, paren, callee, Arrays.asList(arguments));
+    }
+
+    static Object invoke(Interpreter interpreter, InlineCache cache, Object object, Token name, Object[] arguments, Token paren){
+        return Interpreter.invoke(interpreter, cache, object, name, paren, Arrays.asList(arguments));
+    }
+
+    static Object tailInvoke(Interpreter interpreter, InlineCache cache, Object object, Token name, Object[] arguments, Token paren){
+        return interpreter.tailInvoke(cache, object, name, paren, Arrays.asList(arguments));
+    }
+
+    static Object assignGlobal(Object value, Environment globals, Token name){
+        globals.assign(name, value);
+        return value;
+    }
+
+    static Object newClass(String name){
+        return new LoxClass(name, null, Collections.<String, LoxMethod>emptyMap());
+    }
+
+    /// the guard of an inlined call, the callee still is the function whose body was inlined.
+    static boolean isInlined(Object callee, Object function){
+        return callee instanceof LoxFunction && ((LoxFunction) callee).declaration == function;
+    }
+
+    /// a guard in the compiled code of the function failed, it goes back to the interpreter.
+    static void deoptimize(LoxFunction function){
+        function.deoptimize();
+    }
+}
@@ -0,0 +1,33 @@
+import java.util.List;
+
+/// the body of a top level function the Parser only matched the braces of, it's parsed and resolved the first time
+/// the function runs. a function declared at the top level captures nothing, so resolving it late changes nothing
+/// for the code around it, and its body is scanned again from a copy of its text the Parser made. a program that
+/// declares many functions but calls few of them only pays for parsing those few.
+final class LazyBody {
+    // the body from its '{' to its '}', and the line it starts on.
+    final String text;
+    final int line;
+    // whether the body turned out to have errors, they were reported the first time.
+    private boolean failed = false;
+
+    LazyBody(String text, int line){
+        this.text = text;
+        this.line = line;
+    }
+
+    /// parses and resolves the body into the function, which is then like any other.
+    void load(Stmt.Function function){
+        if(!failed){
+            Parser parser = new Parser(new Scanner(text, 0, line).tokens());
+            List<Stmt> body = parser.functionBody();
+            if(body != null && !Lox.hadError){
+                function.body.addAll(body);
+                new Resolver().resolveBody(function);
+            }
+            failed = body == null || Lox.hadError;
+        }
+        if(failed) throw new RuntimeError(function.name, "Can't call '" + function.name.lexeme + "', its body has errors.");
+        function.lazy = null;
+    }
+}
@@ -3,22 +3,51 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 
 public class Lox
 {
-    private static Interpreter interpreter = new Interpreter();
+    // calls deeper than this are a runtime error, each one gets this much of the Java stack in the tree-walkers.
+    // -max-depth stops at MAX_DEPTH, a thread with a bigger stack than that takes usually can't be started.
+    private static final int DEFAULT_MAX_DEPTH = 10000;
+    private static final int MAX_DEPTH = 1000000;
+    private static final long STACK_BYTES_PER_CALL = 4096;
+
+    private static Engine engine;
+    private static boolean optimize = false;
+    private static boolean memoStats = false;
+    // whether top level function bodies are parsed when first called ('-lazy=on', off by default), the errors of a
+    // body that never runs then go unreported. only the tree-walking Interpreter runs a body straight from its AST at call
+    // time, the other engines and the Optimizer go over every body up front.
+    private static boolean lazyBodies = false;
+    // where resolved scripts are kept between runs ('-cache'), null when they aren't.
+    private static ScriptCache cache = null;
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
     private static void runFile(String filePath) throws IOException
     {
-        byte[] bytes = Files.readAllBytes(Paths.get(filePath));
-        run(new String(bytes, Charset.defaultCharset()));
+        // mapped rather than read, the Scanner reads the file in place and the Parser pulls its tokens one by one,
+        // so none of the script is held on the heap but the AST, and with '-lazy=on' the text of the bodies left for
+        // later.
+        SourceFile source = SourceFile.map(Paths.get(filePath));
+        if(engine instanceof FlatInterpreter && !optimize && cache == null){
+            // the flat engine encodes each declaration as soon as it's resolved, the Optimizer and the cache need the
+            // whole AST.
+            FlatAst ast = FlatAst.compile(source);
+            if(ast != null) ((FlatInterpreter) engine).run(ast);
+        }else{
+            List<Stmt> statements = cache != null ? cache.load(source) : null;
+            if(statements == null){
+                statements = resolve(source);
+                if(statements != null && cache != null) cache.store(source, statements);
+            }
+            if(statements != null) execute(statements);
+        }
+        // a script with errors never ran, so none of its memo functions did either.
+        if(memoStats && !hadError) MemoCache.report();
 
         if(hadError) System.exit(65); 
         if(hadRuntimeError) System.exit(70);
@@ -31,35 +60,52 @@ public class Lox
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
 
+        // whether any line got past the Resolver and ran, the memo statistics are only of lines that did.
+        boolean ran = false;
         //equivelant to while(true)
         for(;;)
         {
             System.out.print(">");
             String line = reader.readLine();
             if(line == null) break;
-            run(line);
+            if(run(line)) ran = true;
             hadError = false;
         }
+        if(memoStats && ran) MemoCache.report();
     }
 
-    private static void run(String source) throws IOException
+    /// runs the source unless it has errors, true if it ran.
+    private static boolean run(CharSequence source)
     {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        List<Stmt> statements = resolve(source);
+        if(statements == null) return false;
+        execute(statements);
+        return true;
+    }
 
-        Parser parser = new Parser(tokens);
+    /// the resolved statements of the source, null if it has errors.
+    private static List<Stmt> resolve(CharSequence source)
+    {
+        Scanner scanner = new Scanner(source);
+        Parser parser = new Parser(scanner.tokens(), lazyBodies);
         List<Stmt> statements = parser.parse();
 
         // stop if there was a syntax error
-        if(hadError) return;
+        if(hadError) return null;
 
-        Resolver resolver = new Resolver(interpreter);
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
 
         // stop if there was a semantic error
-        if(hadError) return;
+        if(hadError) return null;
+        return statements;
+    }
 
-        interpreter.interpret(statements);
+    private static void execute(List<Stmt> statements)
+    {
+        if(optimize) statements = new Optimizer().optimize(statements);
+
+        engine.interpret(statements);
     }
 
     static void error(int line, String message)
@@ -90,19 +136,91 @@ public class Lox
         hadRuntimeError = true;       
     }
 
+    private static void usage()
+    {
+        System.out.println("Usage: jLox [-engine=tree|nodes|vm|flat] [-jit=on|off] [-lazy=on|off] [-cache=directory] [-max-depth=1..1000000] [-O] [-memo-size=results] [-memo-stats] [script]");
+        System.out.println("-engine=vm compiles a function with at most 65536 locals, 256 captured variables and 65536 constants.");
+        System.exit(64);
+    }
+
     public static void main(String[] args) throws IOException {
 
-        if(args.length > 1)
+        // options come before the script, the tree-walking Interpreter is the default engine.
+        String engineName = "tree";
+        String jit = "on";
+        String lazy = "off";
+        String cacheDirectory = null;
+        String maxDepthOption = String.valueOf(DEFAULT_MAX_DEPTH);
+        String memoSizeOption = String.valueOf(MemoCache.capacity);
+        String script = null;
+        for(String arg : args)
         {
-            System.out.println("Usage: jLox [script]");
-            System.exit(64);
+            if(arg.startsWith("-engine=")) engineName = arg.substring("-engine=".length());
+            else if(arg.startsWith("-jit=")) jit = arg.substring("-jit=".length());
+            else if(arg.startsWith("-lazy=")) lazy = arg.substring("-lazy=".length());
+            else if(arg.startsWith("-cache=")) cacheDirectory = arg.substring("-cache=".length());
+            else if(arg.startsWith("-max-depth=")) maxDepthOption = arg.substring("-max-depth=".length());
+            else if(arg.equals("-O")) optimize = true;
+            else if(arg.startsWith("-memo-size=")) memoSizeOption = arg.substring("-memo-size=".length());
+            else if(arg.equals("-memo-stats")) memoStats = true;
+            else if(arg.startsWith("-") || script != null) usage();
+            else script = arg;
+        }
+
+        if(!jit.equals("on") && !jit.equals("off")) usage();
+        if(!lazy.equals("on") && !lazy.equals("off")) usage();
+        int maxDepth = 0;
+        try {
+            maxDepth = Integer.parseInt(maxDepthOption);
+            MemoCache.capacity = Integer.parseInt(memoSizeOption);
+        } catch (NumberFormatException e) {
+            usage();
+        }
+        if(maxDepth < 1 || maxDepth > MAX_DEPTH || MemoCache.capacity < 1) usage();
+
+        switch (engineName) {
+            case "tree": engine = new Interpreter(jit.equals("on"), maxDepth); lazyBodies = lazy.equals("on") && !optimize; break;
+            case "nodes": engine = new NodeCompiler(maxDepth); break;
+            case "vm": engine = new Vm(maxDepth); break;
+            case "flat": engine = new FlatInterpreter(maxDepth); break;
+            default: usage();
         }
-        else if (args.length == 1) {
-            runFile(args[0]);
+        if(cacheDirectory != null) cache = new ScriptCache(Paths.get(cacheDirectory), lazyBodies);
+
+        // the tree-walking engines recurse on the Java stack, the script runs on a thread with room for maxDepth calls.
+        // the Vm keeps its frames on the heap, its thread only gets the default's room, which the Parser and the
+        // Resolver need for deeply nested code on any engine. whatever that thread throws is thrown again from here,
+        // so a crash still exits like it would on main.
+        String path = script;
+        Throwable[] failure = new Throwable[1];
+        Runnable main = () -> {
+            try {
+                if (path != null) {
+                    runFile(path);
+                }
+                else{
+                    runPrompt();
+                }
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        };
+        int stackCalls = engine instanceof Vm ? DEFAULT_MAX_DEPTH : Math.max(maxDepth, DEFAULT_MAX_DEPTH);
+        Thread thread = new Thread(null, main, "lox", STACK_BYTES_PER_CALL * stackCalls);
+        try {
+            thread.start();
+        } catch (OutOfMemoryError e) {
+            System.err.println("Can't start a thread with room for " + maxDepth + " calls, try a smaller -max-depth.");
+            System.exit(71);
         }
-        else{
-            runPrompt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        if(failure[0] instanceof IOException) throw (IOException) failure[0];
+        if(failure[0] instanceof RuntimeException) throw (RuntimeException) failure[0];
+        if(failure[0] instanceof Error) throw (Error) failure[0];
     }
 
 }
\ No newline at end of file
@@ -1,30 +1,48 @@
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class LoxClass implements LoxCallable {
     final String name;
-
-    LoxClass(String name){
+    final LoxClass superclass;
+    // every method an instance responds to, the inherited ones are copied in when the class is defined so a
+    // lookup never walks up the superclass chain, however deep the hierarchy.
+    private final Map<String, LoxMethod> methods;
+    private final LoxMethod initializer;
+    // the shape of an instance without fields, the root of the shapes of this class's instances.
+    final Shape shape = new Shape(this);
+
+    LoxClass(String name, LoxClass superclass, Map<String, ? extends LoxMethod> methods){
         this.name = name;
+        this.superclass = superclass;
+        this.methods = superclass == null ? new HashMap<String, LoxMethod>() : new HashMap<String, LoxMethod>(superclass.methods);
+        this.methods.putAll(methods);
+        this.initializer = this.methods.get("init");
     }
 
+    LoxMethod findMethod(String name){
+        return methods.get(name);
+    }
 
+    LoxMethod initializer(){
+        return initializer;
+    }
 
     public String toString(){
         return name;
     }
 
-
-
     @Override
     public int arity() {
-        return 0;
+        return initializer == null ? 0 : initializer.arity();
     }
 
-
-
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
+        if(initializer != null){
+            ((LoxCallable) initializer.bind(instance)).call(interpreter, arguments);
+        }
         return instance;
     }
 }
@@ -1,12 +1,45 @@
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
 import java.util.List;
 
-public class LoxFunction implements LoxCallable{
-    private final Stmt.Function declaration;
-    private final Environment closure;
+public class LoxFunction implements LoxCallable, LoxMethod{
+    // calls before the body is compiled to JVM bytecode by the JitCompiler, and how many times compiled code
+    // may be thrown away before the function stays in the interpreter for good.
+    static final int JIT_THRESHOLD = 1000;
+    private static final int MAX_DEOPTIMIZATIONS = 8;
 
-    LoxFunction(Stmt.Function declaration, Environment closure){
+    final Stmt.Function declaration;
+    // the cells of the variables of enclosing functions the body uses, in the order of declaration.captures.
+    final Cell[] upvalues;
+    // an initializer always returns 'this'.
+    private final boolean isInitializer;
+    // the instance a method looked up as a value was bound to, null for functions and the methods of a class.
+    final LoxInstance receiver;
+
+    private int calls = 0;
+    private int deoptimizations = 0;
+    private boolean compilable;
+    // (Interpreter, Object[]) -> Object, null while the body is interpreted. a method takes 'this' as the first
+    // argument.
+    private MethodHandle compiled = null;
+
+    LoxFunction(Stmt.Function declaration, Cell[] upvalues, boolean isInitializer){
+        this(declaration, upvalues, isInitializer, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Cell[] upvalues, boolean isInitializer, LoxInstance receiver){
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
+        this.isInitializer = isInitializer;
+        this.receiver = receiver;
+        // compiled code doesn't know about initializers, and a bound method is a new function every time anyway.
+        this.compilable = !isInitializer && receiver == null;
+    }
+
+    /// the method as a value, 'object.method(arguments)' calls invoke instead and never binds it.
+    @Override
+    public LoxFunction bind(LoxInstance instance){
+        return new LoxFunction(declaration, upvalues, isInitializer, instance);
     }
 
     @Override
@@ -16,18 +49,102 @@ public class LoxFunction implements LoxCallable{
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        if(declaration.memo != null) return memoized(interpreter, arguments);
+        return finish(interpreter, execute(interpreter, receiver, arguments));
+    }
+
+    /// a call to a 'memo fun' runs the body only when the cache doesn't have the result yet, a tail call it ends in
+    /// is made before the result is cached.
+    private Object memoized(Interpreter interpreter, List<Object> arguments){
+        List<Object> key = MemoCache.key(arguments);
+        if(key == null) return finish(interpreter, execute(interpreter, receiver, arguments));
+
+        Object result = declaration.memo.get(key);
+        if(result != MemoCache.MISSING) return result;
+        result = finish(interpreter, execute(interpreter, receiver, arguments));
+        declaration.memo.put(key, result);
+        return result;
+    }
+
+    /// calls a method of the instance's class with the instance as 'this', without binding it first.
+    Object invoke(Interpreter interpreter, LoxInstance instance, List<Object> arguments){
+        return finish(interpreter, execute(interpreter, instance, arguments));
+    }
+
+    /// makes the tail calls a body ended in, one after the other from the same Java frame. a tail call to a
+    /// 'memo fun' goes through its cache, on a frame of its own.
+    static Object finish(Interpreter interpreter, Object result){
+        while(result == Interpreter.Completion.TAIL_CALL){
+            LoxFunction function = interpreter.takeTailFunction();
+            LoxInstance instance = interpreter.takeTailReceiver();
+            List<Object> arguments = interpreter.takeTailArguments();
+            if(function.declaration.memo != null) return function.memoized(interpreter, arguments);
+            result = function.execute(interpreter, instance, arguments);
+        }
+        return result;
+    }
+
+    /// runs the body once, the result is TAIL_CALL when it ended in a tail call that is still to be made. the
+    /// Resolver put 'this' in the first slot of a method's scope, and the ones closures capture go in cells.
+    private Object execute(Interpreter interpreter, LoxInstance instance, List<Object> arguments){
+        if(declaration.lazy != null) declaration.lazy.load(declaration);
+        if(compiled != null || tierUp(interpreter)){
+            if(!declaration.isMethod) return invokeCompiled(interpreter, arguments.toArray());
+            Object[] values = new Object[arguments.size() + 1];
+            values[0] = instance;
+            for(int i = 0; i < arguments.size(); i++){
+                values[i + 1] = arguments.get(i);
+            }
+            return invokeCompiled(interpreter, values);
+        }
+
+        Environment environment = new Environment(upvalues, declaration.slotCount);
+        if(declaration.isMethod) environment.define(instance);
         for(int i=0; i<declaration.params.size(); i++){
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+            environment.define(arguments.get(i));
         }
+        environment.capture(declaration.capturedParameters);
+
+        Interpreter.Completion completion = interpreter.executeBlock(declaration.body, environment);
+        if(isInitializer){
+            if(completion == Interpreter.Completion.RETURN) interpreter.takeReturnValue();
+            return instance;
+        }
+        if(completion == Interpreter.Completion.RETURN) return interpreter.takeReturnValue();
+        if(completion == Interpreter.Completion.TAIL_CALL) return completion;
+        return null;
+    }
 
+    /// the entry used by compiled code, the arguments have already been checked against the arity.
+    Object invoke(Interpreter interpreter, Object[] arguments){
+        if(compiled == null || declaration.memo != null) return call(interpreter, Arrays.asList(arguments));
+        return finish(interpreter, invokeCompiled(interpreter, arguments));
+    }
+
+    private Object invokeCompiled(Interpreter interpreter, Object[] arguments){
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return r) {
-            return r.value;
+            return (Object) compiled.invokeExact(interpreter, arguments);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
         }
+    }
 
-        return null;
+    private boolean tierUp(Interpreter interpreter){
+        if(!interpreter.jit || !compilable || ++calls < JIT_THRESHOLD) return false;
+
+        compiled = JitCompiler.compile(this, interpreter.globals);
+        if(compiled == null) compilable = false;
+        return compiled != null;
+    }
+
+    /// drops the compiled code once one of its assumptions failed, it's compiled again after another JIT_THRESHOLD calls.
+    void deoptimize(){
+        if(compiled == null) return;
+        compiled = null;
+        calls = 0;
+        if(++deoptimizations == MAX_DEOPTIMIZATIONS) compilable = false;
     }
 
     @Override
@@ -1,9 +1,25 @@
+import java.util.Arrays;
+
 public class LoxInstance {
-    
-    private LoxClass klass;
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    final LoxClass klass;
+    // the values of the fields, at the slots the shape gives their names.
+    Shape shape;
+    Object[] fields = NO_FIELDS;
 
     LoxInstance(LoxClass klass){
         this.klass = klass;
+        this.shape = klass.shape;
+    }
+
+    /// moves the instance to a shape with one more field, the array grows in small steps since most instances
+    /// only ever get a handful of fields.
+    void reshape(Shape shape){
+        if(shape.size() > fields.length){
+            fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+        }
+        this.shape = shape;
     }
 
     public String toString(){
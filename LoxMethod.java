@@ -0,0 +1,8 @@
+/// a function declared in a class body, in the form the engine that defined the class compiled it to. a LoxClass
+/// keeps its methods in a table and binds one to the instance it was looked up on.
+interface LoxMethod {
+    int arity();
+
+    /// the method with 'this' bound to the instance, ready to be called.
+    Object bind(LoxInstance instance);
+}
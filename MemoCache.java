@@ -0,0 +1,69 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/// the results of the calls to a 'memo fun', keyed by their arguments. the Resolver made sure the function only
+/// depends on its arguments and the memoized functions it calls, so every closure of the declaration shares one
+/// cache. a call is only cached when all its arguments are numbers, strings, booleans or nil, an instance may
+/// change behind the cache's back, and a Rope is flattened to be hashed. once the cache is full the least
+/// recently used result makes room.
+final class MemoCache {
+    /// what get returns for a call that isn't cached, nil is a result like any other.
+    static final Object MISSING = new Object();
+
+    // the most results a cache holds ('-memo-size').
+    static int capacity = 1024;
+    // every cache made so far, in the order their functions were parsed, for '-memo-stats'.
+    private static final List<MemoCache> caches = new ArrayList<MemoCache>();
+
+    private final String name;
+    private final Map<List<Object>, Object> results = new LinkedHashMap<List<Object>, Object>(16, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest){
+            return size() > capacity;
+        }
+    };
+    private long hits = 0;
+    private long misses = 0;
+
+    MemoCache(String name){
+        this.name = name;
+        caches.add(this);
+    }
+
+    /// the key of a call with these arguments, null when one of them can't be part of a key.
+    static List<Object> key(List<Object> arguments){
+        Object[] key = new Object[arguments.size()];
+        for(int i = 0; i < key.length; i++){
+            Object argument = arguments.get(i);
+            if(argument instanceof CharSequence) argument = argument.toString();
+            else if(argument != null && !(argument instanceof Double) && !(argument instanceof Boolean)) return null;
+            key[i] = argument;
+        }
+        return Arrays.asList(key);
+    }
+
+    Object get(List<Object> key){
+        Object result = results.get(key);
+        if(result == null && !results.containsKey(key)){
+            misses++;
+            return MISSING;
+        }
+        hits++;
+        return result;
+    }
+
+    void put(List<Object> key, Object result){
+        results.put(key, result);
+    }
+
+    /// one line per cache on stderr, so a script's output stays the same with '-memo-stats'.
+    static void report(){
+        for(MemoCache cache : caches){
+            System.err.println("memo " + cache.name + ": " + cache.hits + " hits, " + cache.misses + " misses, "
+                + cache.results.size() + " cached");
+        }
+    }
+}
@@ -0,0 +1,1060 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/// the executable tree of the node engine ('-engine=nodes'), compiled from the resolved AST by the NodeCompiler.
+/// unlike the visitors, every node already knows what it does, and the operators rewrite themselves into variants
+/// specialized on the values they actually see. a specialized node that meets a value it didn't expect replaces
+/// itself with the generic variant, which handles everything the tree-walking Interpreter does.
+abstract class Node {
+    Node parent;
+
+    abstract Object execute(Environment environment);
+
+    /// conditions don't need a boxed Boolean, nodes that can produce a primitive directly override this.
+    boolean executeCondition(Environment environment){
+        return Interpreter.isTruthy(execute(environment));
+    }
+
+    /// swaps this node for the given one inside of its parent, the next execution goes straight to the replacement.
+    /// a node that is already out of the tree is left alone: a recursive call can rewrite a node while an outer
+    /// execution of it is still evaluating its operands, and that outer execution's rewrite comes too late.
+    <T extends Node> T replace(T node){
+        if(parent == null) return node;
+        node.parent = parent;
+        parent.replaceChild(this, node);
+        parent = null;
+        return node;
+    }
+
+    void replaceChild(Node oldChild, Node newChild){
+        throw notAChild(oldChild);
+    }
+
+    IllegalStateException notAChild(Node child){
+        return new IllegalStateException(child.getClass().getSimpleName() + " is not a child of " + getClass().getSimpleName() + ".");
+    }
+
+    <T extends Node> T adopt(T child){
+        if(child != null) child.parent = this;
+        return child;
+    }
+
+    // ---- statements ----
+
+    static class SequenceNode extends Node {
+        final Node[] statements;
+
+        SequenceNode(List<Node> statements){
+            this.statements = statements.toArray(new Node[0]);
+            for(Node statement : this.statements) adopt(statement);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            for(Node statement : statements){
+                statement.execute(environment);
+            }
+            return null;
+        }
+    }
+
+    /// a block with an Environment of its own, the others compile to their SequenceNode.
+    static class BlockNode extends Node {
+        final SequenceNode body;
+        final int slotCount;
+
+        BlockNode(SequenceNode body, int slotCount){
+            this.body = adopt(body);
+            this.slotCount = slotCount;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return body.execute(new Environment(Environment.NO_UPVALUES, slotCount));
+        }
+    }
+
+    static class ExpressionNode extends Node {
+        Node expression;
+
+        ExpressionNode(Node expression){
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            expression.execute(environment);
+            return null;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(expression == oldChild) expression = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    static class PrintNode extends Node {
+        Node expression;
+
+        PrintNode(Node expression){
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            System.out.println(Interpreter.stringify(expression.execute(environment)));
+            return null;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(expression == oldChild) expression = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    static class IfNode extends Node {
+        Node condition;
+        final Node thenBranch;
+        final Node elseBranch;
+
+        IfNode(Node condition, Node thenBranch, Node elseBranch){
+            this.condition = adopt(condition);
+            this.thenBranch = adopt(thenBranch);
+            this.elseBranch = adopt(elseBranch);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            if(condition.executeCondition(environment)){
+                thenBranch.execute(environment);
+            }else if(elseBranch != null){
+                elseBranch.execute(environment);
+            }
+            return null;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(condition == oldChild) condition = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    static class WhileNode extends Node {
+        Node condition;
+        final Node body;
+
+        WhileNode(Node condition, Node body){
+            this.condition = adopt(condition);
+            this.body = adopt(body);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            while(condition.executeCondition(environment)){
+                body.execute(environment);
+            }
+            return null;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(condition == oldChild) condition = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    static class ReturnNode extends Node {
+        Node value;
+        final Return signal;
+
+        ReturnNode(Node value, Return signal){
+            this.value = adopt(value);
+            this.signal = signal;
+        }
+
+        /// 'return f(x);' leaves the call to the NodeFunction being returned from when f is one, the result is then
+        /// TAIL_CALL. the call is checked for each time rather than compiled in, an inlined call that went back to
+        /// being a call is a tail call again.
+        @Override
+        Object execute(Environment environment) {
+            // the value is evaluated first, any return inside of it is done with the signal before it's reused here.
+            Object result;
+            if(value instanceof CallNode) result = ((CallNode) value).executeTail(environment);
+            else if(value instanceof InvokeNode) result = ((InvokeNode) value).executeTail(environment);
+            else result = value == null ? null : value.execute(environment);
+            signal.value = result;
+            throw signal;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(value == oldChild) value = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    /// declares a variable, 'global' is known at compile time since only top level declarations are globals.
+    static class DefineNode extends Node {
+        final Token name;
+        final boolean global;
+        final int slot;
+        final boolean captured;
+        Node initializer;
+
+        DefineNode(Token name, boolean global, int slot, boolean captured, Node initializer){
+            this.name = name;
+            this.global = global;
+            this.slot = slot;
+            this.captured = captured;
+            this.initializer = adopt(initializer);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = initializer == null ? null : initializer.execute(environment);
+            if(global){
+                environment.define(name, value);
+            }else{
+                environment.define(slot, captured ? new Cell(value) : value);
+            }
+            return null;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(initializer == oldChild) initializer = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    /// a function declaration, its body is only compiled the first time one of its closures is called.
+    static class FunctionNode extends Node {
+        final Stmt.Function declaration;
+        final boolean global;
+        final NodeCompiler compiler;
+        private SequenceNode body;
+
+        FunctionNode(Stmt.Function declaration, boolean global, NodeCompiler compiler){
+            this.declaration = declaration;
+            this.global = global;
+            this.compiler = compiler;
+        }
+
+        SequenceNode body(){
+            if(body == null){
+                body = adopt(compiler.compileBody(declaration));
+            }
+            return body;
+        }
+
+        /// a captured local function gets its Cell before the closure is made, the body may call it.
+        @Override
+        Object execute(Environment environment) {
+            if(global){
+                environment.define(declaration.name, new NodeFunction(this, Environment.NO_UPVALUES, false));
+            }else if(declaration.captured){
+                Cell cell = new Cell(null);
+                environment.define(declaration.slot, cell);
+                cell.value = new NodeFunction(this, environment.closure(declaration.captures), false);
+            }else{
+                environment.define(declaration.slot, new NodeFunction(this, environment.closure(declaration.captures), false));
+            }
+            return null;
+        }
+    }
+
+    /// the methods of a subclass capture the superclass from the slot the Resolver gave 'super', in a frame of
+    /// its own for a global class.
+    static class ClassNode extends Node {
+        final Token name;
+        final boolean global;
+        final int slot;
+        final boolean captured;
+        final int superSlot;
+        final Token superclassName;
+        Node superclass;
+        final FunctionNode[] methods;
+
+        ClassNode(Stmt.Class stmt, boolean global, Node superclass, List<FunctionNode> methods){
+            this.name = stmt.name;
+            this.global = global;
+            this.slot = stmt.slot;
+            this.captured = stmt.captured;
+            this.superSlot = stmt.superSlot;
+            this.superclassName = stmt.superclass == null ? null : stmt.superclass.name;
+            this.superclass = adopt(superclass);
+            this.methods = methods.toArray(new FunctionNode[0]);
+            for(FunctionNode method : this.methods) adopt(method);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            LoxClass superclassValue = null;
+            Cell cell = null;
+            if(captured && !global){
+                cell = new Cell(null);
+                environment.define(slot, cell);
+            }
+            Environment frame = environment;
+            if(superclass != null){
+                Object value = superclass.execute(environment);
+                if(!(value instanceof LoxClass)){
+                    throw new RuntimeError(superclassName, "Superclass must be a class.");
+                }
+                superclassValue = (LoxClass) value;
+                if(global) frame = new Environment(Environment.NO_UPVALUES, 1);
+                frame.define(superSlot, new Cell(superclassValue));
+            }
+
+            Map<String, NodeFunction> methodTable = new HashMap<String, NodeFunction>();
+            for(FunctionNode method : methods){
+                String methodName = method.declaration.name.lexeme;
+                Cell[] upvalues = frame.closure(method.declaration.captures);
+                methodTable.put(methodName, new NodeFunction(method, upvalues, methodName.equals("init")));
+            }
+
+            LoxClass klass = new LoxClass(name.lexeme, superclassValue, methodTable);
+            if(global){
+                environment.define(name, klass);
+            }else if(cell != null){
+                cell.value = klass;
+            }else{
+                environment.define(slot, klass);
+            }
+            return null;
+        }
+    }
+
+    // ---- expressions ----
+
+    static class LiteralNode extends Node {
+        final Object value;
+        final boolean truthy;
+
+        LiteralNode(Object value){
+            this.value = value;
+            this.truthy = Interpreter.isTruthy(value);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return value;
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            return truthy;
+        }
+    }
+
+    static class LocalNode extends Node {
+        final int depth;
+        final int slot;
+
+        LocalNode(int depth, int slot){
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return environment.getAt(depth, slot);
+        }
+    }
+
+    static class GlobalNode extends Node {
+        final Token name;
+        final Environment globals;
+
+        GlobalNode(Token name, Environment globals){
+            this.name = name;
+            this.globals = globals;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return globals.get(name);
+        }
+    }
+
+    static class AssignLocalNode extends Node {
+        final int depth;
+        final int slot;
+        Node value;
+
+        AssignLocalNode(int depth, int slot, Node value){
+            this.depth = depth;
+            this.slot = slot;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = value.execute(environment);
+            environment.assignAt(depth, slot, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(value == oldChild) value = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    static class AssignGlobalNode extends Node {
+        final Token name;
+        final Environment globals;
+        Node value;
+
+        AssignGlobalNode(Token name, Environment globals, Node value){
+            this.name = name;
+            this.globals = globals;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = value.execute(environment);
+            globals.assign(name, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(value == oldChild) value = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    static class LogicalNode extends Node {
+        final boolean isAnd;
+        Node left;
+        Node right;
+
+        LogicalNode(Token operator, Node left, Node right){
+            this.isAnd = operator.type == TokenType.AND;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return executeCondition(environment);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            boolean leftValue = left.executeCondition(environment);
+            if(isAnd ? !leftValue : leftValue) return leftValue;
+            return right.executeCondition(environment);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(left == oldChild) left = newChild;
+            else if(right == oldChild) right = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    static class NegateNode extends Node {
+        final Token operator;
+        Node right;
+
+        NegateNode(Token operator, Node right){
+            this.operator = operator;
+            this.right = adopt(right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = right.execute(environment);
+            if(value instanceof Double) return -(Double) value;
+            return Interpreter.unary(operator, value);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(right == oldChild) right = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    static class NotNode extends Node {
+        Node right;
+
+        NotNode(Node right){
+            this.right = adopt(right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return !right.executeCondition(environment);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            return !right.executeCondition(environment);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(right == oldChild) right = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    static class CallNode extends Node {
+        final NodeCompiler compiler;
+        final Token paren;
+        Node callee;
+        final Node[] arguments;
+
+        CallNode(NodeCompiler compiler, Token paren, Node callee, List<Node> arguments){
+            this.compiler = compiler;
+            this.paren = paren;
+            this.callee = adopt(callee);
+            this.arguments = arguments.toArray(new Node[0]);
+            for(Node argument : this.arguments) adopt(argument);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object function = callee.execute(environment);
+
+            List<Object> values = new ArrayList<Object>(arguments.length);
+            for(Node argument : arguments){
+                values.add(argument.execute(environment));
+            }
+
+            return call(compiler, paren, function, values);
+        }
+
+        /// the call in a return statement, a NodeFunction is left to the caller's NodeFunction.finish.
+        Object executeTail(Environment environment) {
+            Object function = callee.execute(environment);
+
+            List<Object> values = new ArrayList<Object>(arguments.length);
+            for(Node argument : arguments){
+                values.add(argument.execute(environment));
+            }
+
+            if(function instanceof NodeFunction && ((NodeFunction) function).arity() == values.size()){
+                NodeFunction tail = (NodeFunction) function;
+                return compiler.tailCall(tail, tail.receiver, values);
+            }
+            return call(compiler, paren, function, values);
+        }
+
+        static Object call(NodeCompiler compiler, Token paren, Object function, List<Object> values){
+            if(!(function instanceof LoxCallable)){
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+            }
+
+            LoxCallable callable = (LoxCallable)function;
+            if(values.size() != callable.arity()){
+                throw new RuntimeError(paren, "Expected " + callable.arity() + "arguments but got " + values.size() + ".");
+            }
+
+            // there is no tree-walking Interpreter behind this engine, none of the callables it can reach use it.
+            compiler.enterCall(paren);
+            Object result;
+            try {
+                result = callable.call(null, values);
+            } catch (StackOverflowError error) {
+                throw Interpreter.stackOverflow(paren);
+            }
+            compiler.exitCall();
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(callee == oldChild){
+                callee = newChild;
+                return;
+            }
+            for(int i = 0; i < arguments.length; i++){
+                if(arguments[i] == oldChild){
+                    arguments[i] = newChild;
+                    return;
+                }
+            }
+            throw notAChild(oldChild);
+        }
+    }
+
+    // ---- binary operators ----
+
+    /// the body of a small function the Optimizer inlined, with its arguments in the slots it reserved in the
+    /// current scope. when the global stops holding that function the node replaces itself with the call.
+    static class InlineNode extends Node {
+        final NodeCompiler compiler;
+        final Token paren;
+        Node callee;
+        final Node[] arguments;
+        final Stmt.Function function;
+        final int base;
+        Node body;
+
+        InlineNode(NodeCompiler compiler, Token paren, Node callee, List<Node> arguments, Stmt.Function function, int base, Node body){
+            this.compiler = compiler;
+            this.paren = paren;
+            this.callee = adopt(callee);
+            this.arguments = arguments.toArray(new Node[0]);
+            for(Node argument : this.arguments) adopt(argument);
+            this.function = function;
+            this.base = base;
+            this.body = adopt(body);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = callee.execute(environment);
+            if(!(value instanceof NodeFunction) || !((NodeFunction) value).isDeclaredBy(function)){
+                List<Object> values = new ArrayList<Object>(arguments.length);
+                for(Node argument : arguments){
+                    values.add(argument.execute(environment));
+                }
+                replace(new CallNode(compiler, paren, callee, Arrays.asList(arguments)));
+                return CallNode.call(compiler, paren, value, values);
+            }
+
+            for(int i = 0; i < arguments.length; i++){
+                environment.define(base + i, arguments[i].execute(environment));
+            }
+            return body.execute(environment);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(callee == oldChild){
+                callee = newChild;
+                return;
+            }
+            if(body == oldChild){
+                body = newChild;
+                return;
+            }
+            for(int i = 0; i < arguments.length; i++){
+                if(arguments[i] == oldChild){
+                    arguments[i] = newChild;
+                    return;
+                }
+            }
+            throw notAChild(oldChild);
+        }
+    }
+
+    static class SuperNode extends Node {
+        final Token method;
+        final int depth;
+        final int slot;
+        final int thisDepth;
+        final int thisSlot;
+        final InlineCache cache = new InlineCache();
+
+        SuperNode(Token method, int depth, int slot, int thisDepth, int thisSlot){
+            this.method = method;
+            this.depth = depth;
+            this.slot = slot;
+            this.thisDepth = thisDepth;
+            this.thisSlot = thisSlot;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            LoxClass superclass = (LoxClass) environment.getAt(depth, slot);
+            LoxInstance instance = (LoxInstance) environment.getAt(thisDepth, thisSlot);
+            return cache.getSuper(superclass, instance, method);
+        }
+    }
+
+    static class GetNode extends Node {
+        final Token name;
+        final InlineCache cache = new InlineCache();
+        Node object;
+
+        GetNode(Token name, Node object){
+            this.name = name;
+            this.object = adopt(object);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return cache.get(object.execute(environment), name);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(object == oldChild) object = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    static class SetNode extends Node {
+        final Token name;
+        final InlineCache cache = new InlineCache();
+        Node object;
+        Node value;
+
+        SetNode(Token name, Node object, Node value){
+            this.name = name;
+            this.object = adopt(object);
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object instance = object.execute(environment);
+            return cache.set(instance, name, value.execute(environment));
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(object == oldChild) object = newChild;
+            else if(value == oldChild) value = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    /// 'object.name(arguments)', a method of the instance's class gets the instance as 'this' without being bound
+    /// to it first. like clox, the arguments are evaluated before the method is looked up.
+    static class InvokeNode extends Node {
+        final NodeCompiler compiler;
+        final Token name;
+        final Token paren;
+        final InlineCache cache = new InlineCache();
+        Node object;
+        final Node[] arguments;
+
+        InvokeNode(NodeCompiler compiler, Token name, Token paren, Node object, List<Node> arguments){
+            this.compiler = compiler;
+            this.name = name;
+            this.paren = paren;
+            this.object = adopt(object);
+            this.arguments = arguments.toArray(new Node[0]);
+            for(Node argument : this.arguments) adopt(argument);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object instance = object.execute(environment);
+
+            List<Object> values = new ArrayList<Object>(arguments.length);
+            for(Node argument : arguments){
+                values.add(argument.execute(environment));
+            }
+            return invoke(instance, values);
+        }
+
+        /// the invocation in a return statement, a method of the instance's class is left to the caller's
+        /// NodeFunction.finish.
+        Object executeTail(Environment environment) {
+            Object instance = object.execute(environment);
+
+            List<Object> values = new ArrayList<Object>(arguments.length);
+            for(Node argument : arguments){
+                values.add(argument.execute(environment));
+            }
+
+            if(instance instanceof LoxInstance){
+                LoxMethod method = cache.method((LoxInstance) instance, name);
+                if(method instanceof NodeFunction && method.arity() == values.size()){
+                    return compiler.tailCall((NodeFunction) method, (LoxInstance) instance, values);
+                }
+            }
+            return invoke(instance, values);
+        }
+
+        private Object invoke(Object instance, List<Object> values) {
+            if(instance instanceof LoxInstance){
+                LoxMethod method = cache.method((LoxInstance) instance, name);
+                if(method instanceof NodeFunction){
+                    if(values.size() != method.arity()){
+                        throw new RuntimeError(paren, "Expected " + method.arity() + "arguments but got " + values.size() + ".");
+                    }
+                    compiler.enterCall(paren);
+                    Object result;
+                    try {
+                        result = ((NodeFunction) method).invoke((LoxInstance) instance, values);
+                    } catch (StackOverflowError error) {
+                        throw Interpreter.stackOverflow(paren);
+                    }
+                    compiler.exitCall();
+                    return result;
+                }
+            }
+            return CallNode.call(compiler, paren, cache.get(instance, name), values);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(object == oldChild){
+                object = newChild;
+                return;
+            }
+            for(int i = 0; i < arguments.length; i++){
+                if(arguments[i] == oldChild){
+                    arguments[i] = newChild;
+                    return;
+                }
+            }
+            throw notAChild(oldChild);
+        }
+    }
+
+    abstract static class BinaryNode extends Node {
+        final Token operator;
+        Node left;
+        Node right;
+
+        BinaryNode(Token operator, Node left, Node right){
+            this.operator = operator;
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        /// an assumption broke, rewrite to the generic node and finish this evaluation with the generic semantics.
+        Object generalize(Object leftValue, Object rightValue){
+            replace(new GenericBinaryNode(operator, left, right));
+            return Interpreter.binary(operator, leftValue, rightValue);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if(left == oldChild) left = newChild;
+            else if(right == oldChild) right = newChild;
+            else throw notAChild(oldChild);
+        }
+    }
+
+    /// the state every binary operator starts in, the first values it sees decide what it specializes to.
+    static class UninitializedBinaryNode extends BinaryNode {
+        UninitializedBinaryNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+
+            replace(specialize(leftValue, rightValue));
+            return Interpreter.binary(operator, leftValue, rightValue);
+        }
+
+        private BinaryNode specialize(Object leftValue, Object rightValue){
+            if(leftValue instanceof CharSequence && rightValue instanceof CharSequence && operator.type == TokenType.PLUS){
+                return new ConcatStringsNode(operator, left, right);
+            }
+            if(!(leftValue instanceof Double && rightValue instanceof Double)){
+                return new GenericBinaryNode(operator, left, right);
+            }
+
+            switch (operator.type) {
+                case PLUS: return new AddNumbersNode(operator, left, right);
+                case MINUS: return new SubtractNumbersNode(operator, left, right);
+                case STAR: return new MultiplyNumbersNode(operator, left, right);
+                case SLASH: return new DivideNumbersNode(operator, left, right);
+                case LESS: return new LessNumbersNode(operator, left, right);
+                case LESS_EQUAL: return new LessEqualNumbersNode(operator, left, right);
+                case GREATER: return new GreaterNumbersNode(operator, left, right);
+                case GREATER_EQUAL: return new GreaterEqualNumbersNode(operator, left, right);
+                case EQUAL_EQUAL: return new EqualNumbersNode(operator, left, right);
+                case BANG_EQUAL: return new NotEqualNumbersNode(operator, left, right);
+                default: return new GenericBinaryNode(operator, left, right);
+            }
+        }
+    }
+
+    static class GenericBinaryNode extends BinaryNode {
+        GenericBinaryNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return Interpreter.binary(operator, left.execute(environment), right.execute(environment));
+        }
+    }
+
+    static class ConcatStringsNode extends BinaryNode {
+        ConcatStringsNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+            if(leftValue instanceof CharSequence && rightValue instanceof CharSequence){
+                return Rope.concat((CharSequence) leftValue, (CharSequence) rightValue);
+            }
+            return generalize(leftValue, rightValue);
+        }
+    }
+
+    static class AddNumbersNode extends BinaryNode {
+        AddNumbersNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+            if(leftValue instanceof Double && rightValue instanceof Double){
+                return (Double) leftValue + (Double) rightValue;
+            }
+            return generalize(leftValue, rightValue);
+        }
+    }
+
+    static class SubtractNumbersNode extends BinaryNode {
+        SubtractNumbersNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+            if(leftValue instanceof Double && rightValue instanceof Double){
+                return (Double) leftValue - (Double) rightValue;
+            }
+            return generalize(leftValue, rightValue);
+        }
+    }
+
+    static class MultiplyNumbersNode extends BinaryNode {
+        MultiplyNumbersNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+            if(leftValue instanceof Double && rightValue instanceof Double){
+                return (Double) leftValue * (Double) rightValue;
+            }
+            return generalize(leftValue, rightValue);
+        }
+    }
+
+    static class DivideNumbersNode extends BinaryNode {
+        DivideNumbersNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+            // dividing by zero is an error, the generic node reports it.
+            if(leftValue instanceof Double && rightValue instanceof Double && (Double) rightValue != 0){
+                return (Double) leftValue / (Double) rightValue;
+            }
+            return generalize(leftValue, rightValue);
+        }
+    }
+
+    /// the comparisons produce primitive booleans for conditions and only box when used as a value.
+    abstract static class CompareNumbersNode extends BinaryNode {
+        CompareNumbersNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        abstract boolean compare(double leftValue, double rightValue);
+
+        @Override
+        Object execute(Environment environment) {
+            return executeCondition(environment);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            Object leftValue = left.execute(environment);
+            Object rightValue = right.execute(environment);
+            if(leftValue instanceof Double && rightValue instanceof Double){
+                return compare((Double) leftValue, (Double) rightValue);
+            }
+            return Interpreter.isTruthy(generalize(leftValue, rightValue));
+        }
+    }
+
+    static class LessNumbersNode extends CompareNumbersNode {
+        LessNumbersNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean compare(double leftValue, double rightValue) {
+            return leftValue < rightValue;
+        }
+    }
+
+    static class LessEqualNumbersNode extends CompareNumbersNode {
+        LessEqualNumbersNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean compare(double leftValue, double rightValue) {
+            return leftValue <= rightValue;
+        }
+    }
+
+    static class GreaterNumbersNode extends CompareNumbersNode {
+        GreaterNumbersNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean compare(double leftValue, double rightValue) {
+            return leftValue > rightValue;
+        }
+    }
+
+    static class GreaterEqualNumbersNode extends CompareNumbersNode {
+        GreaterEqualNumbersNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean compare(double leftValue, double rightValue) {
+            return leftValue >= rightValue;
+        }
+    }
+
+    // equality goes through Double.equals() like Interpreter.isEqual(), which treats NaN and -0.0 differently from '=='.
+    static class EqualNumbersNode extends CompareNumbersNode {
+        EqualNumbersNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean compare(double leftValue, double rightValue) {
+            return Double.doubleToLongBits(leftValue) == Double.doubleToLongBits(rightValue);
+        }
+    }
+
+    static class NotEqualNumbersNode extends CompareNumbersNode {
+        NotEqualNumbersNode(Token operator, Node left, Node right){
+            super(operator, left, right);
+        }
+
+        @Override
+        boolean compare(double leftValue, double rightValue) {
+            return Double.doubleToLongBits(leftValue) != Double.doubleToLongBits(rightValue);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/// compiles resolved statements into the Node tree executed by the node engine.
+public class NodeCompiler implements Engine, Expr.Visitor<Node>, Stmt.Visitor<Node> {
+
+    final Environment globals = new Environment();
+    // thrown by every return statement, see Return.
+    private final Return returnSignal = new Return();
+
+    // 0 while compiling top level code, declarations there are globals and everything deeper is a local slot.
+    private int scopeDepth = 0;
+
+    // how many calls may be in progress at once and how many are, like the Interpreter's.
+    private final int maxDepth;
+    private int depth = 0;
+    // the call a return statement ended in, until the NodeFunction returned from makes it.
+    private NodeFunction tailFunction = null;
+    private LoxInstance tailReceiver = null;
+    private List<Object> tailArguments = null;
+
+    NodeCompiler(int maxDepth){
+        this.maxDepth = maxDepth;
+        NativeFunctions.registerFunctions(globals);
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements) {
+        // a runtime error leaves the calls it unwound counted.
+        depth = 0;
+        try {
+            for(Stmt statement : statements){
+                compile(statement).execute(globals);
+            }
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    void enterCall(Token paren){
+        if(++depth > maxDepth){
+            throw Interpreter.stackOverflow(paren);
+        }
+    }
+
+    void exitCall(){
+        depth--;
+    }
+
+    /// like the Interpreter's, a return statement's call is handed over to NodeFunction.finish, which makes it
+    /// once the current body is done so tail calls don't grow the stack.
+    Object tailCall(NodeFunction function, LoxInstance receiver, List<Object> arguments){
+        tailFunction = function;
+        tailReceiver = receiver;
+        tailArguments = arguments;
+        return Interpreter.Completion.TAIL_CALL;
+    }
+
+    NodeFunction takeTailFunction(){
+        NodeFunction function = tailFunction;
+        tailFunction = null;
+        return function;
+    }
+
+    LoxInstance takeTailReceiver(){
+        LoxInstance receiver = tailReceiver;
+        tailReceiver = null;
+        return receiver;
+    }
+
+    List<Object> takeTailArguments(){
+        List<Object> arguments = tailArguments;
+        tailArguments = null;
+        return arguments;
+    }
+
+    private Node compile(Stmt stmt){
+        return stmt.accept(this);
+    }
+
+    private Node compile(Expr expr){
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private Node.SequenceNode compile(List<Stmt> statements){
+        List<Node> nodes = new ArrayList<Node>(statements.size());
+        for(Stmt stmt : statements){
+            nodes.add(compile(stmt));
+        }
+        return new Node.SequenceNode(nodes);
+    }
+
+    /// called by a FunctionNode the first time one of its closures runs.
+    Node.SequenceNode compileBody(Stmt.Function function){
+        int enclosingDepth = scopeDepth;
+        scopeDepth = 1;
+        Node.SequenceNode body = compile(function.body);
+        scopeDepth = enclosingDepth;
+        return body;
+    }
+
+    @Override
+    public Node visitBlockStmt(Stmt.Block stmt) {
+        scopeDepth++;
+        Node.SequenceNode body = compile(stmt.statements);
+        scopeDepth--;
+        if(!stmt.needsEnvironment) return body;
+        return new Node.BlockNode(body, stmt.slotCount);
+    }
+
+    @Override
+    public Node visitClassStmt(Stmt.Class stmt) {
+        List<Node.FunctionNode> methods = new ArrayList<Node.FunctionNode>(stmt.methods.size());
+        for(Stmt.Function method : stmt.methods){
+            methods.add(new Node.FunctionNode(method, false, this));
+        }
+        return new Node.ClassNode(stmt, scopeDepth == 0, compile(stmt.superclass), methods);
+    }
+
+    @Override
+    public Node visitExpressionStmt(Stmt.Expression stmt) {
+        return new Node.ExpressionNode(compile(stmt.expression));
+    }
+
+    @Override
+    public Node visitVarStmt(Stmt.Var stmt) {
+        return new Node.DefineNode(stmt.name, scopeDepth == 0, stmt.slot, stmt.captured, compile(stmt.initializer));
+    }
+
+    @Override
+    public Node visitReturnStmt(Stmt.Return stmt) {
+        return new Node.ReturnNode(compile(stmt.value), returnSignal);
+    }
+
+    @Override
+    public Node visitFunctionStmt(Stmt.Function stmt) {
+        return new Node.FunctionNode(stmt, scopeDepth == 0, this);
+    }
+
+    @Override
+    public Node visitIfStmt(Stmt.If stmt) {
+        Node elseBranch = stmt.elseBranch == null ? null : compile(stmt.elseBranch);
+        return new Node.IfNode(compile(stmt.expression), compile(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Node visitPrintStmt(Stmt.Print stmt) {
+        return new Node.PrintNode(compile(stmt.expression));
+    }
+
+    @Override
+    public Node visitWhileStmt(Stmt.While stmt) {
+        return new Node.WhileNode(compile(stmt.condition), compile(stmt.body));
+    }
+
+    @Override
+    public Node visitAssignExpr(Expr.Assign expr) {
+        if(expr.depth != -1){
+            return new Node.AssignLocalNode(expr.depth, expr.slot, compile(expr.value));
+        }
+        return new Node.AssignGlobalNode(expr.name, globals, compile(expr.value));
+    }
+
+    @Override
+    public Node visitBinaryExpr(Expr.Binary expr) {
+        return new Node.UninitializedBinaryNode(expr.operator, compile(expr.left), compile(expr.right));
+    }
+
+    @Override
+    public Node visitCallExpr(Expr.Call expr) {
+        List<Node> arguments = new ArrayList<Node>(expr.arguments.size());
+        for(Expr argument : expr.arguments){
+            arguments.add(compile(argument));
+        }
+        return new Node.CallNode(this, expr.paren, compile(expr.callee), arguments);
+    }
+
+    @Override
+    public Node visitInlineExpr(Expr.Inline expr) {
+        List<Node> arguments = new ArrayList<Node>(expr.call.arguments.size());
+        for(Expr argument : expr.call.arguments){
+            arguments.add(compile(argument));
+        }
+        Node callee = compile(expr.call.callee);
+        return new Node.InlineNode(this, expr.call.paren, callee, arguments, expr.function, expr.base, compile(expr.body));
+    }
+
+    @Override
+    public Node visitInvokeExpr(Expr.Invoke expr) {
+        List<Node> arguments = new ArrayList<Node>(expr.arguments.size());
+        for(Expr argument : expr.arguments){
+            arguments.add(compile(argument));
+        }
+        return new Node.InvokeNode(this, expr.name, expr.paren, compile(expr.object), arguments);
+    }
+
+    @Override
+    public Node visitGetExpr(Expr.Get expr) {
+        return new Node.GetNode(expr.name, compile(expr.object));
+    }
+
+    @Override
+    public Node visitSetExpr(Expr.Set expr) {
+        return new Node.SetNode(expr.name, compile(expr.object), compile(expr.value));
+    }
+
+    @Override
+    public Node visitThisExpr(Expr.This expr) {
+        return new Node.LocalNode(expr.depth, expr.slot);
+    }
+
+    @Override
+    public Node visitSuperExpr(Expr.Super expr) {
+        return new Node.SuperNode(expr.method, expr.depth, expr.slot, expr.thisDepth, expr.thisSlot);
+    }
+
+    @Override
+    public Node visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Node visitLiteralExpr(Expr.Literal expr) {
+        return new Node.LiteralNode(expr.value);
+    }
+
+    @Override
+    public Node visitLogicalExpr(Expr.Logical expr) {
+        return new Node.LogicalNode(expr.operator, compile(expr.left), compile(expr.right));
+    }
+
+    @Override
+    public Node visitUnaryExpr(Expr.Unary expr) {
+        if(expr.operator.type == TokenType.BANG){
+            return new Node.NotNode(compile(expr.right));
+        }
+        return new Node.NegateNode(expr.operator, compile(expr.right));
+    }
+
+    @Override
+    public Node visitVariableExpr(Expr.Variable expr) {
+        if(expr.depth != -1){
+            return new Node.LocalNode(expr.depth, expr.slot);
+        }
+        return new Node.GlobalNode(expr.name, globals);
+    }
+}
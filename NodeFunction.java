@@ -0,0 +1,102 @@
+import java.util.List;
+
+/// a function of the node engine, the counterpart of LoxFunction which runs the compiled body instead of the AST.
+public class NodeFunction implements LoxCallable, LoxMethod {
+    private final Node.FunctionNode declaration;
+    // the cells of the variables of enclosing functions the body uses.
+    private final Cell[] upvalues;
+    // an initializer always returns 'this'.
+    private final boolean isInitializer;
+    // the instance a method looked up as a value was bound to, null for functions and the methods of a class.
+    final LoxInstance receiver;
+
+    NodeFunction(Node.FunctionNode declaration, Cell[] upvalues, boolean isInitializer){
+        this(declaration, upvalues, isInitializer, null);
+    }
+
+    private NodeFunction(Node.FunctionNode declaration, Cell[] upvalues, boolean isInitializer, LoxInstance receiver){
+        this.declaration = declaration;
+        this.upvalues = upvalues;
+        this.isInitializer = isInitializer;
+        this.receiver = receiver;
+    }
+
+    @Override
+    public NodeFunction bind(LoxInstance instance){
+        return new NodeFunction(declaration, upvalues, isInitializer, instance);
+    }
+
+    @Override
+    public int arity() {
+        return declaration.declaration.params.size();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        if(declaration.declaration.memo == null) return invoke(receiver, arguments);
+        return memoized(receiver, arguments);
+    }
+
+    /// a 'memo fun' only runs the body when its cache doesn't have the result yet.
+    private Object memoized(LoxInstance instance, List<Object> arguments) {
+        List<Object> key = MemoCache.key(arguments);
+        if(key == null) return invoke(instance, arguments);
+        Object result = declaration.declaration.memo.get(key);
+        if(result != MemoCache.MISSING) return result;
+        result = invoke(instance, arguments);
+        declaration.declaration.memo.put(key, result);
+        return result;
+    }
+
+    /// calls a method of the instance's class with the instance as 'this', which the Resolver put in the first
+    /// slot of the method's scope.
+    Object invoke(LoxInstance instance, List<Object> arguments) {
+        return finish(execute(instance, arguments));
+    }
+
+    /// makes the tail calls a body ended in, one after the other from the same Java frame. a tail call to a
+    /// 'memo fun' goes through its cache, on a frame of its own.
+    private Object finish(Object result) {
+        NodeCompiler compiler = declaration.compiler;
+        while(result == Interpreter.Completion.TAIL_CALL){
+            NodeFunction function = compiler.takeTailFunction();
+            LoxInstance instance = compiler.takeTailReceiver();
+            List<Object> arguments = compiler.takeTailArguments();
+            if(function.declaration.declaration.memo != null) return function.memoized(instance, arguments);
+            result = function.execute(instance, arguments);
+        }
+        return result;
+    }
+
+    /// runs the body once, the result is TAIL_CALL when it ended in a tail call that is still to be made.
+    private Object execute(LoxInstance instance, List<Object> arguments) {
+        Environment environment = new Environment(upvalues, declaration.declaration.slotCount);
+        if(declaration.declaration.isMethod) environment.define(instance);
+        for(int i=0; i<arguments.size(); i++){
+            environment.define(arguments.get(i));
+        }
+        environment.capture(declaration.declaration.capturedParameters);
+
+        try {
+            declaration.body().execute(environment);
+        } catch (Return r) {
+            Object value = r.value;
+            r.value = null;
+            if(isInitializer) return instance;
+            return value;
+        }
+
+        if(isInitializer) return instance;
+        return null;
+    }
+
+    /// the guard of the calls the Optimizer inlined.
+    boolean isDeclaredBy(Stmt.Function function){
+        return declaration.declaration == function;
+    }
+
+    @Override
+    public String toString(){
+        return "<fn " + declaration.declaration.name.lexeme + ">";
+    }
+}
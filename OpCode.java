@@ -0,0 +1,61 @@
+/// the instruction set of the bytecode VM ('-engine=vm'). every instruction is one byte, followed by its operands:
+/// u8 for local, upvalue and argument counts, u16 (big endian) for constant pool indices and jump offsets. a local
+/// past slot 255 and a jump further than a u16 reaches take the _WIDE form of the instruction instead.
+final class OpCode {
+    static final byte CONSTANT = 0;         // u16 constant
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;        // u8 slot
+    static final byte SET_LOCAL = 6;        // u8 slot
+    static final byte GET_GLOBAL = 7;       // u16 name token
+    static final byte DEFINE_GLOBAL = 8;    // u16 name token
+    static final byte SET_GLOBAL = 9;       // u16 name token
+    static final byte GET_UPVALUE = 10;     // u8 index
+    static final byte SET_UPVALUE = 11;     // u8 index
+    static final byte EQUAL = 12;
+    static final byte NOT_EQUAL = 13;
+    static final byte GREATER = 14;
+    static final byte GREATER_EQUAL = 15;
+    static final byte LESS = 16;
+    static final byte LESS_EQUAL = 17;
+    static final byte ADD = 18;
+    static final byte SUBTRACT = 19;
+    static final byte MULTIPLY = 20;
+    static final byte DIVIDE = 21;
+    static final byte NOT = 22;
+    static final byte NEGATE = 23;
+    static final byte TRUTHY = 24;          // replaces the top of the stack with its truthiness
+    static final byte PRINT = 25;
+    static final byte JUMP = 26;            // u16 forward offset
+    static final byte JUMP_IF_FALSE = 27;   // u16 forward offset, leaves the condition on the stack
+    static final byte LOOP = 28;            // u16 backward offset
+    static final byte CALL = 29;            // u8 argument count
+    static final byte CLOSURE = 30;         // u16 function, then (u8 isLocal, u16 index) for every upvalue
+    static final byte CLOSE_UPVALUE = 31;
+    static final byte RETURN = 32;
+    static final byte CLASS = 33;           // u16 name, u16 method count, u8 inherits, pops the method closures
+    static final byte TAIL_CALL = 34;       // u8 argument count, a called closure takes over the current frame
+    static final byte GET_PROPERTY = 35;    // u16 name token, u16 inline cache
+    static final byte SET_PROPERTY = 36;    // u16 name token, u16 inline cache
+    static final byte GET_SUPER = 37;       // u16 name token, u16 inline cache
+    static final byte INVOKE = 38;          // u16 name token, u16 inline cache, u8 argument count
+    static final byte TAIL_INVOKE = 39;     // u16 name token, u16 inline cache, u8 argument count
+    static final byte GET_LOCAL_WIDE = 40;  // u16 slot
+    static final byte SET_LOCAL_WIDE = 41;  // u16 slot
+    static final byte JUMP_WIDE = 42;       // u32 forward offset
+    static final byte JUMP_IF_FALSE_WIDE = 43; // u32 forward offset, leaves the condition on the stack
+    static final byte LOOP_WIDE = 44;       // u32 backward offset
+
+    // how many values each instruction leaves on the stack, the calls and CLASS are the exception since it depends
+    // on their operand.
+    static final int[] STACK_EFFECT = {
+        1, 1, 1, 1, -1, 1, 0, 1, -1, 0, 1, 0,
+        -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
+        0, 0, 0, -1, 0, 0, 0, 0, 1, -1, -1, 1, 0, 0, -1, -1, 0, 0,
+        1, 0, 0, 0, 0
+    };
+
+    private OpCode(){}
+}
@@ -0,0 +1,488 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+/// the optional pass between the Resolver and the engines ('-O'), rewrites the resolved statements into ones that
+/// do less work: operators on literals are folded, locals that are never assigned after their declaration are
+/// replaced by their value when it's a literal, and branches and loops behind a constant condition are dropped or
+/// unwrapped. an operation that would fail is left alone, so the error still happens at run time on the same line.
+/// the nodes it rebuilds keep what the Resolver stored on the old ones.
+///
+/// calls to small global functions declared earlier in the program are inlined: a function whose body is a single
+/// return statement can't declare anything that outlives the call, so its body can run in the caller's scope with
+/// the parameters moved to slots reserved there. the global may be redefined at any time, the Expr.Inline keeps
+/// the original call and the engines fall back to it for good once the global holds something else.
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    // the most nodes the returned expression of an inlined function may have.
+    private static final int MAX_INLINE_SIZE = 24;
+
+    private static class Scope{
+        // the locals in scope, mapped to their value when it's a constant and to null otherwise. every declaration
+        // is recorded so an inner name hides the outer one, like it does in the Resolver.
+        final Map<String, Expr.Literal> constants = new HashMap<String, Expr.Literal>();
+        // the scope whose Environment this one runs in, like in the Resolver. only a host keeps the counts below.
+        final Scope host;
+        // the slots taken by the scope's variables and the inlined calls being optimized, and the most ever taken.
+        int used;
+        int slotCount;
+
+        Scope(Scope host, int slotCount){
+            this.host = host == null ? this : host;
+            this.used = slotCount;
+            this.slotCount = slotCount;
+        }
+    }
+
+    // globals are never constant, any line of the REPL may assign them.
+    private final Stack<Scope> scopes = new Stack<>();
+    // the global functions that can be inlined, by name. the latest declaration wins, calls it doesn't declare
+    // deoptimize.
+    private final Map<String, Stmt.Function> inlinable = new HashMap<String, Stmt.Function>();
+
+    List<Stmt> optimize(List<Stmt> statements){
+        List<Stmt> optimized = new ArrayList<Stmt>(statements.size());
+        for(Stmt statement : statements){
+            Stmt stmt = optimize(statement);
+            if(stmt != null) optimized.add(stmt);
+        }
+        return optimized;
+    }
+
+    /// the optimized statement, null when it does nothing.
+    private Stmt optimize(Stmt stmt){
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr){
+        return expr == null ? null : expr.accept(this);
+    }
+
+    /// a statement where one is needed, a removed one becomes an empty block.
+    private Stmt required(Stmt stmt){
+        Stmt optimized = optimize(stmt);
+        if(optimized != null) return optimized;
+        return new Stmt.Block(Collections.<Stmt>emptyList());
+    }
+
+    private List<Expr> optimizeAll(List<Expr> expressions){
+        List<Expr> optimized = new ArrayList<Expr>(expressions.size());
+        for(Expr expr : expressions){
+            optimized.add(optimize(expr));
+        }
+        return optimized;
+    }
+
+    private void declare(String name, Expr.Literal value){
+        if(scopes.isEmpty()) return;
+        scopes.peek().constants.put(name, value);
+    }
+
+    /// a scope with an Environment of its own.
+    private void beginScope(int slotCount){
+        scopes.push(new Scope(null, slotCount));
+    }
+
+    /// a block running in the Environment around it, top level code has none and the block hosts itself.
+    private void beginSharedScope(){
+        scopes.push(new Scope(scopes.isEmpty() ? null : scopes.peek().host, 0));
+    }
+
+    /// the number of slots the scope's Environment needs with the ones of the calls inlined into it, 0 when it
+    /// runs in another one.
+    private int endScope(){
+        Scope scope = scopes.pop();
+        return scope.host == scope ? scope.slotCount : 0;
+    }
+
+    // ---- statements ----
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        if(stmt.needsEnvironment) beginScope(stmt.slotCount);
+        else beginSharedScope();
+        Stmt.Block block = new Stmt.Block(optimize(stmt.statements));
+
+        // a block of top level code only needs one for the calls inlined into it.
+        block.slotCount = endScope();
+        block.needsEnvironment = stmt.needsEnvironment || block.slotCount > 0;
+        return block;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        declare(stmt.name.lexeme, null);
+
+        if(stmt.superclass != null){
+            beginScope(1);
+            declare("super", null);
+        }
+        List<Stmt.Function> methods = new ArrayList<Stmt.Function>(stmt.methods.size());
+        for(Stmt.Function method : stmt.methods){
+            methods.add(function(method));
+        }
+        if(stmt.superclass != null) endScope();
+
+        Stmt.Class klass = new Stmt.Class(stmt.name, stmt.superclass, methods);
+        klass.slot = stmt.slot;
+        klass.captured = stmt.captured;
+        klass.superSlot = stmt.superSlot;
+        return klass;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if(expression instanceof Expr.Literal) return null;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = optimize(stmt.initializer);
+
+        Expr.Literal value = null;
+        if(!stmt.assigned){
+            if(initializer == null) value = new Expr.Literal(null);
+            else if(initializer instanceof Expr.Literal) value = (Expr.Literal) initializer;
+        }
+        declare(stmt.name.lexeme, value);
+
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        var.captured = stmt.captured;
+        var.assigned = stmt.assigned;
+        return var;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        return new Stmt.Return(stmt.keyword, optimize(stmt.value));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        boolean global = scopes.isEmpty();
+        declare(stmt.name.lexeme, null);
+        Stmt.Function function = function(stmt);
+
+        if(global){
+            if(isInlinable(function)) inlinable.put(function.name.lexeme, function);
+            else inlinable.remove(function.name.lexeme);
+        }
+        return function;
+    }
+
+    private Stmt.Function function(Stmt.Function stmt){
+        beginScope(stmt.slotCount);
+        if(stmt.isMethod) declare("this", null);
+        for(Token param : stmt.params){
+            declare(param.lexeme, null);
+        }
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, optimize(stmt.body));
+
+        function.slot = stmt.slot;
+        function.slotCount = endScope();
+        function.isMethod = stmt.isMethod;
+        function.captured = stmt.captured;
+        function.captures = stmt.captures;
+        function.capturedParameters = stmt.capturedParameters;
+        function.memo = stmt.memo;
+        return function;
+    }
+
+    /// a single return of a small expression that doesn't call the function itself. a 'memo fun' keeps its calls,
+    /// they go through its cache.
+    private static boolean isInlinable(Stmt.Function function){
+        if(function.memo != null) return false;
+        if(function.body.size() != 1 || !(function.body.get(0) instanceof Stmt.Return)) return false;
+        Expr value = ((Stmt.Return) function.body.get(0)).value;
+        if(value == null) return false;
+
+        Copier copier = new Copier(0);
+        copier.copy(value);
+        return copier.size <= MAX_INLINE_SIZE && !copier.globals.contains(function.name.lexeme);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.expression);
+        if(condition instanceof Expr.Literal){
+            Stmt branch = Interpreter.isTruthy(((Expr.Literal) condition).value) ? stmt.thenBranch : stmt.elseBranch;
+            return branch == null ? null : optimize(branch);
+        }
+
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        return new Stmt.If(condition, required(stmt.thenBranch), elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        return new Stmt.Print(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if(condition instanceof Expr.Literal && !Interpreter.isTruthy(((Expr.Literal) condition).value)){
+            return null;
+        }
+        return new Stmt.While(condition, required(stmt.body));
+    }
+
+    // ---- expressions ----
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr.Assign assign = new Expr.Assign(expr.name, optimize(expr.value));
+        assign.depth = expr.depth;
+        assign.slot = expr.slot;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if(left instanceof Expr.Literal && right instanceof Expr.Literal){
+            try {
+                return new Expr.Literal(Interpreter.binary(expr.operator, ((Expr.Literal) left).value, ((Expr.Literal) right).value));
+            } catch (RuntimeError error) {
+                // reported when it executes.
+            }
+        }
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Stmt.Function function = inlinedFunction(expr);
+        if(function == null){
+            return new Expr.Call(optimize(expr.callee), expr.paren, optimizeAll(expr.arguments));
+        }
+
+        // the parameters go first, the arguments may inline calls of their own above them.
+        Scope scope = scopes.peek().host;
+        int base = scope.used;
+        scope.used += function.slotCount;
+        scope.slotCount = Math.max(scope.slotCount, scope.used);
+
+        Expr.Call call = new Expr.Call(optimize(expr.callee), expr.paren, optimizeAll(expr.arguments));
+        Expr.Inline inline = new Expr.Inline(call, function, new Copier(base).copy(((Stmt.Return) function.body.get(0)).value));
+        inline.base = base;
+
+        scope.used = base;
+        return inline;
+    }
+
+    /// the function a call to a global inlines, null when it's not one of the inlinable functions or the call
+    /// passes the wrong number of arguments. top level code has no scope to hold the parameters.
+    private Stmt.Function inlinedFunction(Expr.Call expr){
+        if(scopes.isEmpty() || !(expr.callee instanceof Expr.Variable)) return null;
+        Expr.Variable callee = (Expr.Variable) expr.callee;
+        if(callee.depth != -1) return null;
+
+        Stmt.Function function = inlinable.get(callee.name.lexeme);
+        if(function == null || function.params.size() != expr.arguments.size()) return null;
+        return function;
+    }
+
+    @Override
+    public Expr visitInlineExpr(Expr.Inline expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        return new Expr.Get(optimize(expr.object), expr.name);
+    }
+
+    @Override
+    public Expr visitInvokeExpr(Expr.Invoke expr) {
+        return new Expr.Invoke(optimize(expr.object), expr.name, expr.paren, optimizeAll(expr.arguments));
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    /// the logical operators produce booleans, a left operand that decides the result makes the whole expression
+    /// a literal, and so do two literal operands.
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if(left instanceof Expr.Literal){
+            boolean leftValue = Interpreter.isTruthy(((Expr.Literal) left).value);
+            boolean isAnd = expr.operator.type == TokenType.AND;
+            if(isAnd ? !leftValue : leftValue) return new Expr.Literal(leftValue);
+            if(right instanceof Expr.Literal) return new Expr.Literal(Interpreter.isTruthy(((Expr.Literal) right).value));
+        }
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        return new Expr.Set(optimize(expr.object), expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if(right instanceof Expr.Literal){
+            Object value = ((Expr.Literal) right).value;
+            if(expr.operator.type == TokenType.BANG) return new Expr.Literal(!Interpreter.isTruthy(value));
+            try {
+                return new Expr.Literal(Interpreter.unary(expr.operator, value));
+            } catch (RuntimeError error) {
+                // reported when it executes.
+            }
+        }
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        if(expr.depth == -1) return expr;
+
+        for(int i = scopes.size() - 1; i >= 0; i--){
+            Map<String, Expr.Literal> scope = scopes.get(i).constants;
+            if(scope.containsKey(expr.name.lexeme)){
+                Expr.Literal value = scope.get(expr.name.lexeme);
+                return value != null ? value : expr;
+            }
+        }
+        return expr;
+    }
+
+    /// copies the returned expression of an inlined function into a call site, where the slots of the function's
+    /// scope start at offset. the function is global, every local it refers to is in that scope. the copy gets its
+    /// own inline caches, and counts its nodes and the globals it reads on the way.
+    private static class Copier implements Expr.Visitor<Expr> {
+        private final int offset;
+        int size = 0;
+        final Set<String> globals = new HashSet<String>();
+
+        Copier(int offset){
+            this.offset = offset;
+        }
+
+        Expr copy(Expr expr){
+            size++;
+            return expr.accept(this);
+        }
+
+        private List<Expr> copyAll(List<Expr> expressions){
+            List<Expr> copies = new ArrayList<Expr>(expressions.size());
+            for(Expr expr : expressions){
+                copies.add(copy(expr));
+            }
+            return copies;
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            Expr.Assign assign = new Expr.Assign(expr.name, copy(expr.value));
+            assign.depth = expr.depth;
+            assign.slot = expr.depth == -1 ? expr.slot : expr.slot + offset;
+            if(expr.depth == -1) globals.add(expr.name.lexeme);
+            return assign;
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            return new Expr.Binary(copy(expr.left), expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            return new Expr.Call(copy(expr.callee), expr.paren, copyAll(expr.arguments));
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get expr) {
+            return new Expr.Get(copy(expr.object), expr.name);
+        }
+
+        @Override
+        public Expr visitInvokeExpr(Expr.Invoke expr) {
+            return new Expr.Invoke(copy(expr.object), expr.name, expr.paren, copyAll(expr.arguments));
+        }
+
+        @Override
+        public Expr visitInlineExpr(Expr.Inline expr) {
+            Expr.Inline inline = new Expr.Inline((Expr.Call) copy(expr.call), expr.function, copy(expr.body));
+            inline.base = expr.base + offset;
+            return inline;
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            return new Expr.Grouping(copy(expr.expression));
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr) {
+            return new Expr.Logical(copy(expr.left), expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr) {
+            return new Expr.Set(copy(expr.object), expr.name, copy(expr.value));
+        }
+
+        // a global function has no 'this' or 'super', the Resolver reports them.
+        @Override
+        public Expr visitSuperExpr(Expr.Super expr) {
+            throw new IllegalStateException("'super' in a global function.");
+        }
+
+        @Override
+        public Expr visitThisExpr(Expr.This expr) {
+            throw new IllegalStateException("'this' in a global function.");
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            return new Expr.Unary(expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            if(expr.depth == -1){
+                globals.add(expr.name.lexeme);
+                return expr;
+            }
+            Expr.Variable variable = new Expr.Variable(expr.name);
+            variable.depth = expr.depth;
+            variable.slot = expr.slot + offset;
+            return variable;
+        }
+    }
+}
@@ -18,11 +18,25 @@ public class Parser {
 
     private static class ParseError extends RuntimeException{}
 
-    private final List<Token> tokens;
+    private static final int MEMO = Symbols.intern("memo");
+
+    // only the tokens the AST keeps, names and operators, are ever made into Token objects.
+    private final Tokens tokens;
     private int current = 0;
+    // whether the bodies of top level functions are skipped, to be parsed when they are first called.
+    private final boolean lazy;
+    // how many blocks deep the parser is, only functions outside of any block are top level.
+    private int nesting = 0;
+    // whether this parser reported a syntax error, Lox.hadError also counts the Resolver's.
+    private boolean hadError = false;
+
+    Parser(Tokens tokens){
+        this(tokens, false);
+    }
 
-    Parser(List<Token> tokens){
+    Parser(Tokens tokens, boolean lazy){
         this.tokens = tokens;
+        this.lazy = lazy;
     }
 
     List<Stmt> parse(){
@@ -39,6 +53,21 @@ public class Parser {
         return statements;
     }
 
+    /// whether every declaration was parsed.
+    boolean done(){
+        return isAtEnd();
+    }
+
+    boolean hadError(){
+        return hadError;
+    }
+
+    /// parses the next top level declaration, null when it has a syntax error. a front end that deals with the
+    /// declarations one at a time never holds the AST of the whole script.
+    Stmt next(){
+        return declaration();
+    }
+
     private Expr expression(){
         return assignment();
     }
@@ -47,7 +76,8 @@ public class Parser {
         try {
             if(match(TokenType.CLASS)) return classDeclaration();
             if(match(TokenType.VAR)) return varDeclaration();
-            if(match(TokenType.FUN)) return function("function");
+            if(match(TokenType.FUN)) return function("function", lazy);
+            if(checkMemo()) return memoFunction();
             return statement();
         } catch (ParseError error) {
             synchronize();
@@ -57,16 +87,23 @@ public class Parser {
 
     private Stmt classDeclaration(){
         Token name = consume(TokenType.IDENTIFIER, "Expected identifier after 'class' keyword.");
-        consume(TokenType.LEFT_BRACE, "Expected '{' after identifier.");
+
+        Expr.Variable superclass = null;
+        if(match(TokenType.LESS)){
+            expect(TokenType.IDENTIFIER, "Expected superclass name after '<'.");
+            superclass = new Expr.Variable(previous());
+        }
+
+        expect(TokenType.LEFT_BRACE, "Expected '{' before class body.");
 
         List<Stmt.Function> methods = new ArrayList<>();
         while(!check(TokenType.RIGHT_BRACE) && !isAtEnd()){
-            methods.add(function("method"));
+            methods.add(function("method", false));
         }
 
-        consume(TokenType.RIGHT_BRACE, "Expected '}' at end of class body.");
+        expect(TokenType.RIGHT_BRACE, "Expected '}' at end of class body.");
 
-        return new Stmt.Class(name, methods);
+        return new Stmt.Class(name, superclass, methods);
     }
 
     private Stmt statement(){
@@ -83,7 +120,7 @@ public class Parser {
     // Despite the name of the function, it actually implements a while loop, its simply a 'Desugaring' technique for
     // improving the language syntax without actually making any large changes to the backend.
     private Stmt forStatement(){
-        consume(TokenType.LEFT_PAREN, "Error, expected '(' after 'for'.");
+        expect(TokenType.LEFT_PAREN, "Error, expected '(' after 'for'.");
         
         Stmt initializer = null;
         if(match(TokenType.SEMICOLON)){
@@ -98,13 +135,13 @@ public class Parser {
         if(!check(TokenType.SEMICOLON)){
             condition = expression();
         }
-        consume(TokenType.SEMICOLON, "Expected ';' after loop condition.");
+        expect(TokenType.SEMICOLON, "Expected ';' after loop condition.");
 
         Expr incrementer = null;
         if(!check(TokenType.RIGHT_PAREN)){
             incrementer = expression();
         }
-        consume(TokenType.RIGHT_PAREN, "Expected ')' after clauses.");
+        expect(TokenType.RIGHT_PAREN, "Expected ')' after clauses.");
 
         Stmt body = statement();
 
@@ -129,9 +166,9 @@ public class Parser {
     }
 
     private Stmt ifStatement(){
-        consume(TokenType.LEFT_PAREN, "Expected '(' after 'if'.");
+        expect(TokenType.LEFT_PAREN, "Expected '(' after 'if'.");
         Expr condition = expression();
-        consume(TokenType.RIGHT_PAREN, "Expected ')' after if statement condition.");
+        expect(TokenType.RIGHT_PAREN, "Expected ')' after if statement condition.");
 
         Stmt thenBranch = statement();
 
@@ -146,7 +183,7 @@ public class Parser {
     private Stmt printStatement(){
         Expr value = expression();
         
-        consume(TokenType.SEMICOLON, "Expect ';' after expression.");
+        expect(TokenType.SEMICOLON, "Expect ';' after expression.");
         return new Stmt.Print(value);
     }
 
@@ -157,7 +194,7 @@ public class Parser {
             value = expression();
         }
 
-        consume(TokenType.SEMICOLON, "Expected ';' after return value.");   
+        expect(TokenType.SEMICOLON, "Expected ';' after return value.");   
         return new Stmt.Return(keyword, value);
     }
 
@@ -171,16 +208,16 @@ public class Parser {
             expression = expression();
         }
 
-        consume(TokenType.SEMICOLON, "Expected ';' after variable declaration");
+        expect(TokenType.SEMICOLON, "Expected ';' after variable declaration");
         Stmt stmt = new Stmt.Var(identifier, expression);
         // return new Stmt.Var(identifier, expression);
         return stmt;
     }
 
     private Stmt whileStatement(){
-        consume(TokenType.LEFT_PAREN, "Expected '(' after 'while'.");
+        expect(TokenType.LEFT_PAREN, "Expected '(' after 'while'.");
         Expr condition = expression();
-        consume(TokenType.RIGHT_PAREN, "Expected ')' after while condition.");
+        expect(TokenType.RIGHT_PAREN, "Expected ')' after while condition.");
 
         Stmt body = statement();
 
@@ -189,14 +226,14 @@ public class Parser {
 
     private Stmt expressionStatement(){
         Expr expr = expression();
-        consume(TokenType.SEMICOLON, "Expect ';' after expression.");
+        expect(TokenType.SEMICOLON, "Expect ';' after expression.");
         return new Stmt.Expression(expr);
     }
 
-    private Stmt.Function function(String kind){
+    private Stmt.Function function(String kind, boolean skippable){
         Token name = consume(TokenType.IDENTIFIER, "Expected " + kind + " name.");
 
-        consume(TokenType.LEFT_PAREN, "Expected '(' after " + kind + " name.");
+        expect(TokenType.LEFT_PAREN, "Expected '(' after " + kind + " name.");
         List<Token> parameters = new ArrayList<>();
         if(!check(TokenType.RIGHT_PAREN)){
             do {
@@ -206,9 +243,15 @@ public class Parser {
                 parameters.add(consume(TokenType.IDENTIFIER, "Expected parameter name."));
             } while (match(TokenType.COMMA));
         }
-        consume(TokenType.RIGHT_PAREN, "Expected ')' after " + kind + " parameters.");
+        expect(TokenType.RIGHT_PAREN, "Expected ')' after " + kind + " parameters.");
 
-        consume(TokenType.LEFT_BRACE, "Expected '{' before " + kind + "body.");
+        if(skippable && nesting == 0){
+            Stmt.Function function = new Stmt.Function(name, parameters, new ArrayList<Stmt>());
+            function.lazy = skipBody();
+            return function;
+        }
+
+        expect(TokenType.LEFT_BRACE, "Expected '{' before " + kind + "body.");
         List<Stmt> body = block();
         
         // No need to consume right brace since block() does it already.
@@ -216,14 +259,62 @@ public class Parser {
         return new Stmt.Function(name, parameters, body);
     }
 
+    /// matches the braces of a body without parsing what's in them, the LazyBody keeps a copy of its text to scan
+    /// again, from its '{' to its '}'. the script itself may have changed on disk by the time the body runs.
+    private LazyBody skipBody(){
+        int start = tokens.start(current);
+        int line = tokens.line(current);
+        expect(TokenType.LEFT_BRACE, "Expected '{' before function body.");
+        int depth = 1;
+        while(depth > 0 && !isAtEnd()){
+            TokenType type = tokens.type(current);
+            if(type == TokenType.LEFT_BRACE) depth++;
+            else if(type == TokenType.RIGHT_BRACE) depth--;
+            advance();
+        }
+        if(depth > 0) throw error(peek(), "Expected '}' at end of block.");
+        int end = tokens.start(current - 1) + 1;
+        return new LazyBody(tokens.source().subSequence(start, end).toString(), line);
+    }
+
+    /// the body of a function that was skipped, from its '{' on. null when it can't be parsed.
+    List<Stmt> functionBody(){
+        try {
+            expect(TokenType.LEFT_BRACE, "Expected '{' before function body.");
+            return block();
+        } catch (ParseError error) {
+            return null;
+        }
+    }
+
+    /// 'memo fun' declares a function whose results are cached, 'memo' is still a name anywhere else.
+    private boolean checkMemo(){
+        return check(TokenType.IDENTIFIER) && tokens.symbol(current) == MEMO && checkNext(TokenType.FUN);
+    }
+
+    /// the body of a memoized function is never skipped, the Resolver checks what it calls against the globals
+    /// declared above it.
+    private Stmt.Function memoFunction(){
+        advance();
+        advance();
+        Stmt.Function function = function("function", false);
+        function.memo = new MemoCache(function.name.lexeme);
+        return function;
+    }
+
     private List<Stmt> block(){
         List<Stmt> statements = new ArrayList<>();
 
-        while(!check(TokenType.RIGHT_BRACE) && !isAtEnd()){
-            statements.add(declaration());
+        nesting++;
+        try {
+            while(!check(TokenType.RIGHT_BRACE) && !isAtEnd()){
+                statements.add(declaration());
+            }
+        } finally {
+            nesting--;
         }
 
-        consume(TokenType.RIGHT_BRACE, "Expected '}' at end of block.");
+        expect(TokenType.RIGHT_BRACE, "Expected '}' at end of block.");
         return statements;
     }
 
@@ -237,6 +328,9 @@ public class Parser {
             if(expr instanceof Expr.Variable){
                 Token name = ((Expr.Variable)expr).name;
                 return new Expr.Assign(name, value);
+            }else if(expr instanceof Expr.Get){
+                Expr.Get get = (Expr.Get)expr;
+                return new Expr.Set(get.object, get.name, value);
             }
 
             error(equals, "Invalid assignment target.");
@@ -329,6 +423,9 @@ public class Parser {
         while(true){
             if(match(TokenType.LEFT_PAREN)){
                 expr = finishCall(expr);
+            }else if(match(TokenType.DOT)){
+                Token name = consume(TokenType.IDENTIFIER, "Expected property name after '.'.");
+                expr = new Expr.Get(expr, name);
             }else{
                 break;
             }
@@ -351,6 +448,11 @@ public class Parser {
 
         Token paren = consume(TokenType.RIGHT_PAREN, "Expected ')' after arguments.");
 
+        // 'object.name(arguments)' calls the method without binding it to the object first.
+        if(callee instanceof Expr.Get){
+            Expr.Get get = (Expr.Get)callee;
+            return new Expr.Invoke(get.object, get.name, paren, arguments);
+        }
         return new Expr.Call(callee, paren, arguments);
     }
 
@@ -360,7 +462,16 @@ public class Parser {
         if(match(TokenType.NIL)) return new Expr.Literal(null);
 
         if(match(TokenType.NUMBER, TokenType.STRING)){
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.literal(current - 1));
+        }
+
+        if(match(TokenType.THIS)) return new Expr.This(previous());
+
+        if(match(TokenType.SUPER)){
+            Token keyword = previous();
+            expect(TokenType.DOT, "Expected '.' after 'super'.");
+            Token method = consume(TokenType.IDENTIFIER, "Expected superclass method name.");
+            return new Expr.Super(keyword, method);
         }
 
         // case for identifier names, when an identifier token is found then its turned into a variable invocation expression
@@ -371,7 +482,7 @@ public class Parser {
 
         if(match(TokenType.LEFT_PAREN)){
             Expr expr = expression();
-            consume(TokenType.RIGHT_PAREN, "Expect ')' after expression");
+            expect(TokenType.RIGHT_PAREN, "Expect ')' after expression");
             return new Expr.Grouping(expr);
         }
 
@@ -390,25 +501,41 @@ public class Parser {
         return false;
     }
 
+    /// the token of the given type that's next, which the AST keeps.
     private Token consume(TokenType type, String message){
-        if(check(type)) return advance();
+        expect(type, message);
+        return previous();
+    }
+
+    /// skips the next token, that has to be of the given type.
+    private void expect(TokenType type, String message){
+        if(check(type)){
+            advance();
+            return;
+        }
         throw error(peek(), message);
     }
 
     private boolean check(TokenType type){
         if(isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
+    }
+
+    private boolean checkNext(TokenType type){
+        if(isAtEnd()) return false;
+        return tokens.type(current + 1) == type;
     }
 
     private boolean isAtEnd(){
-        return peek().type == TokenType.EOF;
+        return tokens.type(current) == TokenType.EOF;
     }
 
     private Token previous(){
-        return this.tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private ParseError error(Token token, String message){
+        hadError = true;
         Lox.error(token, message);
         return new ParseError();
     }
@@ -418,9 +545,9 @@ public class Parser {
 
         // we advance the counter until we exit a statement, signified by the ';' token.
         while(!isAtEnd()){
-            if(previous().type == TokenType.SEMICOLON) return;
+            if(tokens.type(current - 1) == TokenType.SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case CLASS: case FOR: case FUN: case IF: case PRINT: case RETURN:
                 case VAR: case WHILE:
                 return;
@@ -431,12 +558,11 @@ public class Parser {
     }
 
     private Token peek(){
-        return this.tokens.get(current);
+        return tokens.token(current);
     }
 
-    private Token advance(){
-        if(!isAtEnd()) return this.tokens.get(current++);
-        return previous();
+    private void advance(){
+        if(!isAtEnd()) current++;
     }
 
 }
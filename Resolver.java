@@ -1,31 +1,110 @@
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
+    // the innermost declaration of each symbol in the scopes open right now, null for a global. a declaration
+    // links to the one it shadows, which is back once its scope ends, so looking a name up takes no hashing.
+    private Local[] declarations = new Local[Symbols.count()];
     private FunctionType currentFunction = FunctionType.NONE;
+    private ClassType currentClass = ClassType.NONE;
+    // the 'memo fun' being resolved and the index of its scope, which a cached call may depend on. from in there only
+    // its own variables can be read, and the function itself and the top level 'memo fun's declared above it called,
+    // anything else could change what a call returns behind the cache's back.
+    private Stmt.Function memoFunction = null;
+    private int memoScope = -1;
+    // by symbol, the globals that are a top level 'memo fun' and the ones a memoized function calls, which can't be
+    // declared or assigned again. they last as long as the globals do, every line of the REPL adds to them.
+    private static boolean[] memoGlobals = new boolean[0];
+    private static boolean[] calledGlobals = new boolean[0];
 
-    Resolver(Interpreter interpreter){
-        this.interpreter = interpreter;
+    private enum FunctionType{
+        NONE,
+        FUNCTION,
+        METHOD,
+        INITIALIZER
     }
 
-    private enum FunctionType{
+    private enum ClassType{
         NONE,
-        FUNCTION
+        CLASS,
+        SUBCLASS
     }
 
+    // a local scope. functions, and the blocks of top level code, get an Environment of their own when they run,
+    // a frame. any other block runs in the frame of its host, the closest enclosing scope that has one, and its
+    // variables take slots there that the blocks after it reuse.
+    private static class Scope{
+        final List<Local> locals = new ArrayList<Local>();
+        final boolean hasEnvironment;
+        final Scope host;
+        // the host's first slot that was free when the scope began.
+        final int firstSlot;
+        // on a host, the next free slot and how many slots its Environment needs.
+        int nextSlot = 0;
+        int slotCount = 0;
+        // on the frame of a function, what its closure captures, in the encoding of Stmt.Function.captures.
+        final List<Integer> upvalues = new ArrayList<Integer>();
+
+        Scope(boolean hasEnvironment, Scope enclosing){
+            this.hasEnvironment = hasEnvironment;
+            this.host = hasEnvironment || enclosing == null ? this : enclosing.host;
+            this.firstSlot = host.nextSlot;
+        }
+    }
+
+    // a variable declared in a local scope, its slot is in the Environment of the scope's host.
+    private static class Local{
+        final int symbol;
+        final int slot;
+        // the index of the declaring scope, and the declaration of the same name it shadows.
+        final int scope;
+        final Local shadowed;
+        boolean defined = false;
+        // whether a function nested in the host uses it, it then lives in a Cell.
+        boolean captured = false;
+        // 'this' and the parameters, which the call defines rather than a declaration.
+        boolean parameter = false;
+        // the Var, Function or Class declaring the variable, which learns whether it's captured, and a Var whether
+        // it's ever assigned. null for the implicit ones.
+        Stmt declaration = null;
+
+        Local(int symbol, int slot, int scope, Local shadowed){
+            this.symbol = symbol;
+            this.slot = slot;
+            this.scope = scope;
+            this.shadowed = shadowed;
+        }
+    }
+
+    /// a block that declares nothing has nothing to keep in an Environment, and the closures made in a block only
+    /// keep the cells of the variables they use, so a block runs in the frame it is entered from whenever there is
+    /// one. top level code, and the blocks in it that declare nothing, have none to share.
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        stmt.needsEnvironment = declaresVariables(stmt.statements) && !hosted();
+        beginScope(stmt.needsEnvironment);
         resolve(stmt.statements);
+        if(stmt.needsEnvironment) stmt.slotCount = scopes.peek().slotCount;
         endScope();
 
         return null;
     }
 
+    private static boolean declaresVariables(List<Stmt> statements){
+        for(Stmt stmt : statements){
+            if(stmt instanceof Stmt.Var || stmt instanceof Stmt.Function || stmt instanceof Stmt.Class) return true;
+        }
+        return false;
+    }
+
+    /// whether the scope about to begin has a frame to share.
+    private boolean hosted(){
+        return !scopes.isEmpty() && scopes.peek().host.hasEnvironment;
+    }
+
     void resolve(List<Stmt> statements){
         for(Stmt stmt : statements){
             resolve(stmt);
@@ -42,27 +121,74 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void resolveFunction(Stmt.Function function, FunctionType type){
         FunctionType enclosingFunction = currentFunction;
+        Stmt.Function enclosingMemoFunction = memoFunction;
+        int enclosingMemoScope = memoScope;
         currentFunction = type;
-        beginScope();
+        if(function.memo != null){
+            memoFunction = function;
+            memoScope = scopes.size();
+        }
+        beginScope(true);
+        // a method gets the instance it was called on as a hidden first parameter.
+        if(type == FunctionType.METHOD || type == FunctionType.INITIALIZER){
+            defineImplicit("this").parameter = true;
+            function.isMethod = true;
+        }
         for(Token param : function.params){
-            declare(param);
+            Local local = declare(param);
+            if(local != null) local.parameter = true;
             define(param);
         }
         resolve(function.body);
+
+        Scope scope = scopes.peek();
+        function.slotCount = scope.slotCount;
+        function.captures = toArray(scope.upvalues);
+        List<Integer> capturedParameters = new ArrayList<Integer>();
+        for(Local local : scope.locals){
+            if(local.parameter && local.captured) capturedParameters.add(local.slot);
+        }
+        function.capturedParameters = toArray(capturedParameters);
         endScope();
         currentFunction = enclosingFunction;
+        memoFunction = enclosingMemoFunction;
+        memoScope = enclosingMemoScope;
     }
 
-    private void beginScope(){
-        scopes.push(new HashMap<String, Boolean>());
+    private void beginScope(boolean hasEnvironment){
+        scopes.push(new Scope(hasEnvironment, scopes.isEmpty() ? null : scopes.peek()));
     }
 
+    private static int[] toArray(List<Integer> values){
+        int[] array = new int[values.size()];
+        for(int i = 0; i < array.length; i++){
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    /// the slots of a scope without an Environment are free again once it ends. by then every use of its
+    /// variables is resolved, so their declarations learn which ones closures capture.
     private void endScope(){
-        scopes.pop();
+        Scope scope = scopes.pop();
+        if(!scope.hasEnvironment) scope.host.nextSlot = scope.firstSlot;
+        for(Local local : scope.locals){
+            declarations[local.symbol] = local.shadowed;
+            if(!local.captured || local.declaration == null) continue;
+            if(local.declaration instanceof Stmt.Var) ((Stmt.Var) local.declaration).captured = true;
+            else if(local.declaration instanceof Stmt.Function) ((Stmt.Function) local.declaration).captured = true;
+            else ((Stmt.Class) local.declaration).captured = true;
+        }
     }
 
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        Local local = declare(stmt.name);
+        if(local != null){
+            local.declaration = stmt;
+            stmt.slot = local.slot;
+        }else if(scopes.isEmpty()){
+            redefine(stmt.name, false);
+        }
         if(stmt.initializer != null){
             resolve(stmt.initializer);
         }
@@ -71,38 +197,137 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private void declare(Token name){
-        if(scopes.isEmpty()) return;
+    /// a global is declared, or assigned, once more. a memoized function that calls it would go on returning what
+    /// the one before gave.
+    private static void redefine(Token name, boolean memo){
+        if(isSet(calledGlobals, name.symbol)){
+            Lox.error(name, "Can't redefine a function a memoized function calls.");
+        }
+        memoGlobals = set(memoGlobals, name.symbol, memo);
+    }
+
+    /// the names of the globals that are a top level 'memo fun', and of the ones memoized functions call. the
+    /// ScriptCache keeps them with a program it doesn't resolve again, the bodies the Parser skipped still are.
+    static List<String> memoGlobals(){
+        return names(memoGlobals);
+    }
+
+    static List<String> calledGlobals(){
+        return names(calledGlobals);
+    }
+
+    static void restoreGlobals(List<String> memo, List<String> called){
+        for(String name : memo) memoGlobals = set(memoGlobals, Symbols.intern(name), true);
+        for(String name : called) calledGlobals = set(calledGlobals, Symbols.intern(name), true);
+    }
+
+    private static List<String> names(boolean[] flags){
+        List<String> names = new ArrayList<String>();
+        for(int symbol = 0; symbol < flags.length; symbol++){
+            if(flags[symbol]) names.add(Symbols.name(symbol));
+        }
+        return names;
+    }
+
+    private static boolean isSet(boolean[] flags, int symbol){
+        return symbol < flags.length && flags[symbol];
+    }
+
+    private static boolean[] set(boolean[] flags, int symbol, boolean value){
+        if(symbol >= flags.length) flags = Arrays.copyOf(flags, Math.max(symbol + 1, Symbols.count()));
+        flags[symbol] = value;
+        return flags;
+    }
+
+    /// the new local, null for a global or a name the scope already declares.
+    private Local declare(Token name){
+        if(scopes.isEmpty()) return null;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if(scope.containsKey(name.lexeme)){
+        Local declared = lookUp(name.symbol);
+        if(declared != null && declared.scope == scopes.size() - 1){
             Lox.error(name, "Already a variable with that name in this scope.");
+            return null;
         }
 
-        scope.put(name.lexeme, false);
+        return declare(name.symbol);
+    }
+
+    private Local declare(int symbol){
+        Scope scope = scopes.peek();
+        Scope host = scope.host;
+        if(symbol >= declarations.length) declarations = Arrays.copyOf(declarations, Symbols.count());
+        Local local = new Local(symbol, host.nextSlot++, scopes.size() - 1, declarations[symbol]);
+        if(host.nextSlot > host.slotCount) host.slotCount = host.nextSlot;
+        scope.locals.add(local);
+        declarations[symbol] = local;
+        return local;
     }
 
     private void define(Token name){
         if(scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        lookUp(name.symbol).defined = true;
     }
 
-    private void resolveLocal(Expr expr, Token name){
-        for(int i = scopes.size() - 1; i >= 0; i--){
-            if(scopes.get(i).containsKey(name.lexeme)){
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+    /// the innermost declaration of the symbol, null if it's a global.
+    private Local lookUp(int symbol){
+        return symbol < declarations.length ? declarations[symbol] : null;
+    }
+
+    /// the index of the declaring scope, -1 for a global.
+    private static int scopeOf(Local local){
+        return local == null ? -1 : local.scope;
+    }
+
+    /// -1 for a global, 0 for a local of the running frame and 1 for one of an enclosing function, which the
+    /// running closure reaches through its upvalues.
+    private int depthOf(int scope){
+        if(scope == -1) return -1;
+        return scopes.get(scope).host == scopes.peek().host ? 0 : 1;
+    }
+
+    /// the slot of a local in the running frame, or the index of its upvalue. a local used from a nested function
+    /// is captured, and each function between its frame and the running one captures it in turn so the closures
+    /// made there can hand its cell down.
+    private int slotOf(Local local){
+        if(scopes.get(local.scope).host == scopes.peek().host) return local.slot;
+
+        local.captured = true;
+        int capture = local.slot;
+        for(int i = local.scope + 1; i < scopes.size(); i++){
+            Scope frame = scopes.get(i);
+            if(!frame.hasEnvironment) continue;
+            int index = frame.upvalues.indexOf(capture);
+            if(index == -1){
+                index = frame.upvalues.size();
+                frame.upvalues.add(capture);
             }
+            capture = -1 - index;
         }
+        return -1 - capture;
     }
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if(!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE){
+        resolveVariable(expr, false);
+        return null;
+    }
+
+    /// a callee may also be a top level 'memo fun', or the memoized function itself, inside of a 'memo fun'.
+    private void resolveVariable(Expr.Variable expr, boolean callee){
+        Local local = lookUp(expr.name.symbol);
+        int scope = scopeOf(local);
+        if(local != null && scope == scopes.size() - 1 && !local.defined){
             Lox.error(expr.name, "Can't read local variable in it's own initializer.");
         }
-        resolveLocal(expr, expr.name);
-        return null;
+        if(scope < memoScope){
+            if(callee && scope == -1 && isSet(memoGlobals, expr.name.symbol)){
+                calledGlobals = set(calledGlobals, expr.name.symbol, true);
+            }else if(!(callee && local != null && local.declaration == memoFunction)){
+                Lox.error(expr.name, "A memoized function can only read its own variables and call memoized functions.");
+            }
+        }
+        expr.depth = depthOf(scope);
+        if(local != null) expr.slot = slotOf(local);
     }
 
     @Override
@@ -115,26 +340,53 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitIfStmt(Stmt.If stmt) {
         resolve(stmt.expression);
         resolve(stmt.thenBranch);
-        if(stmt.elseBranch != null) resolve(stmt.thenBranch);
+        if(stmt.elseBranch != null) resolve(stmt.elseBranch);
         return null;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        Local local = lookUp(expr.name.symbol);
+        int scope = scopeOf(local);
+        if(scope < memoScope){
+            Lox.error(expr.name, "A memoized function can't assign to variables outside of it.");
+        }
+        if(scope == -1) redefine(expr.name, false);
+        expr.depth = depthOf(scope);
+        if(local != null){
+            expr.slot = slotOf(local);
+            if(local.declaration instanceof Stmt.Var) ((Stmt.Var) local.declaration).assigned = true;
+        }
         return null;
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        Local local = declare(stmt.name);
+        if(local != null){
+            local.declaration = stmt;
+            stmt.slot = local.slot;
+        }else if(scopes.isEmpty()){
+            redefine(stmt.name, stmt.memo != null);
+        }
         define(stmt.name);
 
+        // a body the Parser skipped is resolved when it's parsed, a top level function captures nothing.
+        if(stmt.lazy != null){
+            stmt.captures = new int[0];
+            stmt.capturedParameters = new int[0];
+            return null;
+        }
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
     }
 
+    /// resolves the body of a top level function the Parser skipped, once it's parsed.
+    void resolveBody(Stmt.Function function){
+        resolveFunction(function, FunctionType.FUNCTION);
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         resolve(stmt.expression);
@@ -150,7 +402,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitCallExpr(Expr.Call expr) {
-        resolve(expr.callee);
+        if(expr.callee instanceof Expr.Variable) resolveVariable((Expr.Variable) expr.callee, true);
+        else resolve(expr.callee);
 
         for(Expr arg : expr.arguments){
             resolve(arg);
@@ -158,6 +411,34 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitInvokeExpr(Expr.Invoke expr) {
+        resolve(expr.object);
+        for(Expr argument : expr.arguments){
+            resolve(argument);
+        }
+        return null;
+    }
+
+    /// only made by the Optimizer, out of statements that were already resolved.
+    @Override
+    public Void visitInlineExpr(Expr.Inline expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        resolve(expr.object);
+        resolve(expr.value);
+        return null;
+    }
+
     @Override
     public Void visitGroupingExpr(Expr.Grouping expr) {
         resolve(expr.expression);
@@ -188,7 +469,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             Lox.error(stmt.keyword, "Can't return from top level code.");
         }
 
-        if(stmt.value != null) resolve(stmt.value);
+        if(stmt.value != null){
+            if(currentFunction == FunctionType.INITIALIZER){
+                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+            }
+            resolve(stmt.value);
+        }
         return null;
     }
 
@@ -199,10 +485,84 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    /// a subclass's methods capture 'super' from a scope the engines create when the class is defined, in the
+    /// running frame if there is one and in a frame of its own otherwise. the cell of 'super' is made whether or not
+    /// a method uses it. 'this' is the first slot of every method's own scope.
     @Override
     public Void visitClassStmt(Stmt.Class stmt) {
-        declare(stmt.name);
+        ClassType enclosingClass = currentClass;
+        currentClass = ClassType.CLASS;
+
+        Local local = declare(stmt.name);
+        if(local != null){
+            local.declaration = stmt;
+            stmt.slot = local.slot;
+        }else if(scopes.isEmpty()){
+            redefine(stmt.name, false);
+        }
         define(stmt.name);
+
+        if(stmt.superclass != null){
+            if(stmt.superclass.name.symbol == stmt.name.symbol){
+                Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+            }
+            currentClass = ClassType.SUBCLASS;
+            resolve(stmt.superclass);
+
+            beginScope(!hosted());
+            stmt.superSlot = defineImplicit("super").slot;
+        }
+
+        for(Stmt.Function method : stmt.methods){
+            FunctionType type = method.name.lexeme.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            resolveFunction(method, type);
+        }
+
+        if(stmt.superclass != null) endScope();
+
+        currentClass = enclosingClass;
+        return null;
+    }
+
+    private Local defineImplicit(String name){
+        Local local = declare(Symbols.intern(name));
+        local.defined = true;
+        return local;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        if(currentClass == ClassType.NONE){
+            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            return null;
+        }
+        Local local = lookUp(expr.keyword.symbol);
+        if(scopeOf(local) < memoScope){
+            Lox.error(expr.keyword, "A memoized function can only read its own variables and call memoized functions.");
+        }
+        expr.depth = depthOf(scopeOf(local));
+        expr.slot = slotOf(local);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        if(currentClass == ClassType.NONE){
+            Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+            return null;
+        }else if(currentClass != ClassType.SUBCLASS){
+            Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+            return null;
+        }
+        Local local = lookUp(expr.keyword.symbol);
+        if(scopeOf(local) < memoScope){
+            Lox.error(expr.keyword, "A memoized function can only read its own variables and call memoized functions.");
+        }
+        expr.depth = depthOf(scopeOf(local));
+        expr.slot = slotOf(local);
+        Local instance = lookUp(Symbols.intern("this"));
+        expr.thisDepth = depthOf(scopeOf(instance));
+        expr.thisSlot = slotOf(instance);
         return null;
     }
 
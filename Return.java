@@ -1,9 +1,11 @@
+/// unwinds the node engine's Java stack from a return statement to the NodeFunction being called. it has no stack
+/// trace and each NodeCompiler throws the same instance, the value is set right before it's thrown. the value of a
+/// return statement that ended in a tail call is TAIL_CALL, the call itself waits in the NodeCompiler.
 public class Return extends RuntimeException {
-    final Object value;
+    Object value;
 
-    Return(Object value){
+    Return(){
         super(null, null, false, false);
-        this.value = value;
     }
 
 }
@@ -0,0 +1,76 @@
+import java.util.ArrayDeque;
+
+/// a string made by '+', which links the two strings instead of copying them, so a loop appending to a string
+/// takes linear time instead of quadratic. the characters are copied into a single String once, the first time
+/// something needs them: printing, comparing, hashing or any other CharSequence method. a Lox string is any
+/// CharSequence, a String or a Rope.
+final class Rope implements CharSequence {
+    // shorter results are copied right away, a Rope of a few characters costs more than it saves.
+    private static final int SHORT = 64;
+
+    private final int length;
+    // the two halves until the rope is flattened, then null and the characters are in flat.
+    private CharSequence left;
+    private CharSequence right;
+    private String flat = null;
+
+    private Rope(CharSequence left, CharSequence right, int length){
+        this.left = left;
+        this.right = right;
+        this.length = length;
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right){
+        int length = left.length() + right.length();
+        if(length <= SHORT) return left.toString().concat(right.toString());
+        if(left.length() == 0) return right;
+        if(right.length() == 0) return left;
+        return new Rope(left, right, length);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString(){
+        if(flat == null) flatten();
+        return flat;
+    }
+
+    /// copies the pieces into place from the last one to the first. a string appended to in a loop is a rope as
+    /// deep as the loop ran, so the walk keeps its own stack instead of recursing.
+    private void flatten(){
+        char[] chars = new char[length];
+        int end = length;
+        ArrayDeque<CharSequence> pending = new ArrayDeque<CharSequence>();
+        pending.push(this);
+        while(!pending.isEmpty()){
+            CharSequence piece = pending.pop();
+            if(piece instanceof Rope && ((Rope) piece).flat == null){
+                Rope rope = (Rope) piece;
+                pending.push(rope.left);
+                pending.push(rope.right);
+                continue;
+            }
+            String text = piece.toString();
+            end -= text.length();
+            text.getChars(0, text.length(), chars, end);
+        }
+
+        flat = new String(chars);
+        left = null;
+        right = null;
+    }
+}
@@ -1,8 +1,9 @@
 public class RuntimeError extends RuntimeException {
     final Token token;
 
+    // only the message and the token's line are ever reported, so filling in a stack trace would be wasted work.
     RuntimeError(Token token, String message){
-        super(message);
+        super(message, null, false, false);
         this.token = token;
     }
 }
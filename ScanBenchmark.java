@@ -0,0 +1,75 @@
+import java.util.Random;
+
+/// how fast the Scanner goes, in MB of source a second, over a synthetic script of the given size (16 MB by default)
+/// made of the things real scripts are made of: classes, functions, loops, strings, numbers and comments, with a few
+/// thousand distinct names. 'java ScanBenchmark [megabytes]'
+public class ScanBenchmark {
+    private static final int RUNS = 20;
+
+    public static void main(String[] args){
+        int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        String source = corpus(megabytes * 1000 * 1000);
+
+        long best = Long.MAX_VALUE;
+        int count = 0;
+        for(int run = 0; run < RUNS; run++){
+            long start = System.nanoTime();
+            count = scan(source);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        double seconds = best / 1e9;
+        System.out.printf("%d tokens in %.1f MB: best of %d %.3fs, %.1f MB/s, %.1f M tokens/s%n", count,
+            source.length() / 1e6, RUNS, seconds, source.length() / 1e6 / seconds, count / 1e6 / seconds);
+    }
+
+    /// the number of tokens in the source.
+    private static int scan(String source){
+        Tokens tokens = new Scanner(source).tokens();
+        int count = 0;
+        while(tokens.type(count) != TokenType.EOF) count++;
+        return count;
+    }
+
+    private static String corpus(int size){
+        Random random = new Random(42);
+        String[] names = new String[4000];
+        String[] words = {"value", "count", "node", "item", "total", "index", "left", "right", "next", "cache"};
+        for(int i = 0; i < names.length; i++){
+            names[i] = words[i % words.length] + (i < words.length ? "" : "_" + i / words.length);
+        }
+
+        StringBuilder source = new StringBuilder(size + 1024);
+        int unit = 0;
+        while(source.length() < size){
+            String name = names[random.nextInt(names.length)];
+            String a = names[random.nextInt(names.length)];
+            String b = names[random.nextInt(names.length)];
+            source.append("// unit ").append(unit++).append(", generated for the scanning benchmark\n");
+            source.append("class ").append(capitalize(name)).append(" < Base {\n");
+            source.append("    init(").append(a).append(", ").append(b).append(") {\n");
+            source.append("        this.").append(a).append(" = ").append(a).append(";\n");
+            source.append("        this.").append(b).append(" = ").append(b).append(" * ")
+                .append(random.nextInt(1000)).append(".").append(random.nextInt(100)).append(";\n");
+            source.append("    }\n");
+            source.append("    ").append(name).append("() { return super.").append(name).append("() + this.")
+                .append(a).append("; }\n");
+            source.append("}\n");
+            source.append("fun ").append(name).append("_").append(unit).append("(").append(a).append(", ").append(b)
+                .append(") {\n");
+            source.append("    var total = 0;\n");
+            source.append("    /* sum up to the bound */\n");
+            source.append("    while (total <= ").append(b).append(" and !(").append(a).append(" == nil)) {\n");
+            source.append("        total = total + ").append(a).append(" - 1;\n");
+            source.append("        if (total >= 100) print \"large \" + ").append(a).append("; else print \"small\";\n");
+            source.append("    }\n");
+            source.append("    return total / 2;\n");
+            source.append("}\n");
+        }
+        return source.toString();
+    }
+
+    private static String capitalize(String name){
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
@@ -1,18 +1,29 @@
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 public class Scanner {
 
-    private final String source;
-    private final List<Token> tokens = new ArrayList<Token>();
+    // a String, or a SourceFile mapped into memory.
+    private final CharSequence source;
+    private final int length;
+    private final Tokens tokens;
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
     private static final Map<String, TokenType> keywords;
+    // the keywords by their symbol, so telling an identifier from a keyword takes an index instead of a lookup.
+    private static final TokenType[] keywordsBySymbol;
+
+    // what each of the first 256 chars is, so the hot paths test a bit instead of comparing ranges. any char past
+    // them is none of these, Lox only knows ASCII outside of strings and comments.
+    private static final byte ALPHA = 1;
+    private static final byte DIGIT = 2;
+    private static final byte SPACE = 4;
+    private static final byte[] classes = new byte[256];
+    // the token a char always is on its own, null for the chars that need a look at what follows.
+    private static final TokenType[] singles = new TokenType[256];
 
     static{
         keywords = new HashMap<String,TokenType>();
@@ -32,63 +43,91 @@ public class Scanner {
         keywords.put("true", TokenType.TRUE);
         keywords.put("var", TokenType.VAR);
         keywords.put("while", TokenType.WHILE);
+
+        int size = 0;
+        for(String keyword : keywords.keySet()){
+            size = Math.max(size, Symbols.intern(keyword) + 1);
+        }
+        keywordsBySymbol = new TokenType[size];
+        for(Map.Entry<String, TokenType> keyword : keywords.entrySet()){
+            keywordsBySymbol[Symbols.intern(keyword.getKey())] = keyword.getValue();
+        }
+
+        for(char c = 'a'; c <= 'z'; c++) classes[c] = ALPHA;
+        for(char c = 'A'; c <= 'Z'; c++) classes[c] = ALPHA;
+        classes['_'] = ALPHA;
+        for(char c = '0'; c <= '9'; c++) classes[c] = DIGIT;
+        classes[' '] = SPACE;
+        classes['\r'] = SPACE;
+        classes['\t'] = SPACE;
+
+        singles['('] = TokenType.LEFT_PAREN;
+        singles[')'] = TokenType.RIGHT_PAREN;
+        singles['{'] = TokenType.LEFT_BRACE;
+        singles['}'] = TokenType.RIGHT_BRACE;
+        singles[','] = TokenType.COMMA;
+        singles['.'] = TokenType.DOT;
+        singles['-'] = TokenType.MINUS;
+        singles['+'] = TokenType.PLUS;
+        singles[';'] = TokenType.SEMICOLON;
+        singles['*'] = TokenType.STAR;
     }
 
-    Scanner(String source) {
+    Scanner(CharSequence source) {
+        this(source, 0, 1);
+    }
+
+    /// scans the source from the given offset on, which is on the given line.
+    Scanner(CharSequence source, int start, int line) {
         this.source = source;
+        this.length = source.length();
+        this.tokens = new Tokens(this, source);
+        this.current = start;
+        this.line = line;
     }
 
-    List<Token> scanTokens() {
-        while (!isAtEnd()) {
+    /// the tokens of the source, each scanned when the Parser first looks at it.
+    Tokens tokens() {
+        return tokens;
+    }
+
+    /// scans until the next token, which is EOF once the source is over.
+    void scanNext() {
+        int scanned = tokens.size();
+        while (tokens.size() == scanned) {
+            if (isAtEnd()) {
+                tokens.add(TokenType.EOF, current, current, line);
+                return;
+            }
 
             // at the begining of the next lexeme
             start = current;
             scanToken();
         }
-
-        tokens.add(new Token(TokenType.EOF, "", null, line));
-        return tokens;
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= length;
     }
 
     private void scanToken() {
         char c = advance();
 
-        switch (c) {
-            case '(':
-                addToken(TokenType.LEFT_PAREN);
-                break;
-            case ')':
-                addToken(TokenType.RIGHT_PAREN);
-                break;
-            case '{':
-                addToken(TokenType.LEFT_BRACE);
-                break;
-            case '}':
-                addToken(TokenType.RIGHT_BRACE);
-                break;
-            case ',':
-                addToken(TokenType.COMMA);
-                break;
-            case '.':
-                addToken(TokenType.DOT);
-                break;
-            case '-':
-                addToken(TokenType.MINUS);
-                break;
-            case '+':
-                addToken(TokenType.PLUS);
-                break;
-            case ';':
-                addToken(TokenType.SEMICOLON);
-                break;
-            case '*':
-                addToken(TokenType.STAR);
-                break;
+        // the common chars are told apart by the tables, the switch is left with the ones that need a closer look.
+        if (c < 256) {
+            TokenType single = singles[c];
+            if (single != null) {
+                addToken(single);
+                return;
+            }
+            switch (classes[c]) {
+                case SPACE: skipSpaces(); return;
+                case ALPHA: identifier(c); return;
+                case DIGIT: number(); return;
+            }
+        }
 
+        switch (c) {
             case '!':
                 addToken(match('=') ? TokenType.BANG_EQUAL : TokenType.BANG);
                 break;
@@ -134,12 +173,6 @@ public class Scanner {
                 }
                 break;
 
-            // ignores whitespace
-            case ' ':
-            case '\r':
-            case '\t':
-                break;
-
             case '\n':
                 line++;
                 break;
@@ -147,38 +180,45 @@ public class Scanner {
             case '"': string(); break;
 
             default:
-                if(isDigit(c)){
-                    number();
-                }else if(isAlpha(c)){
-                    identifier();
-                }else{
-                    Lox.error(line, "Unexpected character.");
-                }
+                Lox.error(line, "Unexpected character.");
+                // a mapped script is read a byte at a time, the rest of the character's bytes go with it.
+                if(source instanceof SourceFile) current = ((SourceFile) source).characterEnd(start);
                 break;
         }
     }
 
-    private boolean isAlpha(char c)
+    /// indentation comes in runs, they are skipped in one go rather than a token's worth of work for each char.
+    private void skipSpaces()
     {
-        return c >= 'a' && c <= 'z' ||
-            c >= 'A' && c <= 'Z' ||
-            c == '_';
+        while(current < length){
+            char c = source.charAt(current);
+            if(c >= 256 || classes[c] != SPACE) return;
+            current++;
+        }
     }
 
-    private boolean isAlphaNumeric(char c)
+    private static boolean isAlphaNumeric(char c)
     {
-        return isAlpha(c) || isDigit(c);
+        return c < 256 && (classes[c] & (ALPHA | DIGIT)) != 0;
     }
 
-    private void identifier()
+    /// hashes the name as it goes, so the symbol table doesn't read it again to look it up.
+    private void identifier(char first)
     {
-        while(isAlphaNumeric(peek())) advance();
+        int hash = first;
+        while(current < length){
+            char c = source.charAt(current);
+            if(!isAlphaNumeric(c)) break;
+            hash = 31 * hash + c;
+            current++;
+        }
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
+        // a name seen before isn't copied out of the source again.
+        int symbol = Symbols.intern(source, start, current, hash);
+        TokenType type = symbol < keywordsBySymbol.length ? keywordsBySymbol[symbol] : null;
         if(type == null) type = TokenType.IDENTIFIER;
-        
-        addToken(type, text);
+
+        tokens.addName(type, start, current, line, symbol);
     }
 
     private void string()
@@ -197,7 +237,7 @@ public class Scanner {
 
         advance();
 
-        String value = source.substring(start + 1, current - 1);
+        String value = source.subSequence(start + 1, current - 1).toString();
         addToken(TokenType.STRING, value);
     }
 
@@ -219,13 +259,13 @@ public class Scanner {
 
     private char peekNext()
     {
-        if(current + 1 >= source.length()) return '\0';
+        if(current + 1 >= length) return '\0';
         return source.charAt(current + 1);
     }
 
-    private boolean isDigit(char c)
+    private static boolean isDigit(char c)
     {
-        return c >= '0' && c <= '9';
+        return c < 256 && classes[c] == DIGIT;
     }
 
     private void number()
@@ -242,7 +282,7 @@ public class Scanner {
             while(isDigit(peek())) advance();
         }
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(TokenType.NUMBER, Double.parseDouble(source.subSequence(start, current).toString()));
     }
 
     private char advance() {
@@ -250,12 +290,11 @@ public class Scanner {
     }
 
     private void addToken(TokenType type) {
-        addToken(type, null);
+        tokens.add(type, start, current, line);
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        tokens.add(type, start, current, line, literal);
     }
 
 }
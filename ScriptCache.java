@@ -0,0 +1,769 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/// resolved programs kept on disk ('-cache=directory'), so running a script that didn't change since it last ran
+/// skips scanning, parsing and resolving it. an entry is named after the SHA-256 of the script and whether its bodies
+/// are lazy, and holds the AST with everything the Resolver filled in, in a compact binary form: a tag per node, small
+/// ints as varints and each distinct string once, followed by the globals the Resolver's rules for 'memo fun' know
+/// of, which the bodies skipped are resolved against. the entry also records the build of the interpreter that wrote
+/// it, the laziness, the digest and a CRC32 of the AST, an entry that doesn't match them, or can't be read, is simply
+/// made again. the slots read back are checked against the frames they index, so a damaged entry the CRC32 misses
+/// still can't reach past an Environment. the inline caches and memo caches start out empty like they would after
+/// parsing.
+final class ScriptCache {
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+
+    // the node tags, 0 is a missing expression or statement.
+    private static final int NONE = 0;
+    private static final int ASSIGN = 1, BINARY = 2, CALL = 3, GET = 4, INVOKE = 5, GROUPING = 6, LITERAL = 7,
+        LOGICAL = 8, SET = 9, SUPER = 10, THIS = 11, UNARY = 12, VARIABLE = 13;
+    private static final int BLOCK = 20, CLASS = 21, EXPRESSION = 22, VAR = 23, RETURN = 24, FUNCTION = 25, IF = 26,
+        PRINT = 27, WHILE = 28;
+    // the tags of a literal's value.
+    private static final int NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final Path directory;
+    private final boolean lazyBodies;
+    // the checksums of the class files the interpreter runs from, instead of a format version to remember to bump. a
+    // change to the AST, the Resolver, this format or anything else that was rebuilt makes older entries unusable.
+    // null when the classes can't be read, no entry is used or written then.
+    private final byte[] build;
+
+    ScriptCache(Path directory, boolean lazyBodies){
+        this.directory = directory;
+        this.lazyBodies = lazyBodies;
+        this.build = build();
+        if(build == null) System.err.println("Can't tell which build of jLox this is, the script cache is off.");
+    }
+
+    /// the CRC32 and CRC32C of the classes in the directory or jar ScriptCache was loaded from, which are all in the
+    /// unnamed package at the top of the directory. 64 bits are plenty to tell builds apart, and unlike a SHA-256
+    /// both are intrinsics that take no time before the JIT has warmed up.
+    private static byte[] build(){
+        CodeSource code = ScriptCache.class.getProtectionDomain().getCodeSource();
+        if(code == null) return null;
+        try {
+            Checksum crc = new CRC32();
+            Checksum crc32c = new CRC32C();
+            Path location = Paths.get(code.getLocation().toURI());
+            List<Path> classes = new ArrayList<Path>();
+            if(Files.isDirectory(location)){
+                try(DirectoryStream<Path> files = Files.newDirectoryStream(location, "*.class")){
+                    for(Path file : files) classes.add(file);
+                }
+                Collections.sort(classes);
+            }else{
+                classes.add(location);
+            }
+            for(Path file : classes){
+                byte[] name = (file.getFileName().toString() + "\0").getBytes(StandardCharsets.UTF_8);
+                byte[] bytes = Files.readAllBytes(file);
+                crc.update(name, 0, name.length);
+                crc.update(bytes, 0, bytes.length);
+                crc32c.update(name, 0, name.length);
+                crc32c.update(bytes, 0, bytes.length);
+            }
+            ByteArrayOutputStream build = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(build);
+            out.writeInt((int) crc.getValue());
+            out.writeInt((int) crc32c.getValue());
+            return build.toByteArray();
+        } catch (URISyntaxException | IllegalArgumentException | IOException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /// the statements the script resolved to when it last ran, null when there's no usable entry for it.
+    List<Stmt> load(SourceFile source){
+        if(build == null) return null;
+        byte[] digest = source.digest();
+        Path entry = entry(digest);
+        try(InputStream file = new BufferedInputStream(Files.newInputStream(entry))){
+            DataInputStream in = new DataInputStream(file);
+            if(in.readInt() != MAGIC) return null;
+            byte[] writer = new byte[build.length];
+            in.readFully(writer);
+            if(!Arrays.equals(writer, build) || in.readBoolean() != lazyBodies) return null;
+            byte[] key = new byte[digest.length];
+            in.readFully(key);
+            if(!Arrays.equals(key, digest)) return null;
+
+            int length = in.readInt();
+            long checksum = in.readLong();
+            if(length < 0 || length > Files.size(entry)) return null;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if(crc.getValue() != checksum || in.read() != -1) return null;
+            Reader reader = new Reader(payload);
+            List<Stmt> statements = reader.statements();
+            List<String> memoGlobals = reader.globals();
+            Resolver.restoreGlobals(memoGlobals, reader.globals());
+            return statements;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // a truncated or foreign file, it's replaced once the script is resolved again.
+            return null;
+        }
+    }
+
+    /// writes the entry of the script. it's written to a file of its own and moved into place, so a script run by
+    /// many processes at once never sees half an entry. failing to write one only means the next run resolves again.
+    void store(SourceFile source, List<Stmt> statements){
+        if(build == null) return;
+        byte[] digest = source.digest();
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream ast = new DataOutputStream(payload);
+            Writer writer = new Writer(ast);
+            writer.statements(statements);
+            writer.globals(Resolver.memoGlobals());
+            writer.globals(Resolver.calledGlobals());
+            ast.flush();
+            CRC32 crc = new CRC32();
+            crc.update(payload.toByteArray());
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.write(build);
+            out.writeBoolean(lazyBodies);
+            out.write(digest);
+            out.writeInt(payload.size());
+            out.writeLong(crc.getValue());
+            payload.writeTo(out);
+            out.flush();
+
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+            try {
+                try(OutputStream file = new BufferedOutputStream(Files.newOutputStream(temporary))){
+                    bytes.writeTo(file);
+                }
+                Files.move(temporary, entry(digest), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Can't write to the script cache: " + e.getMessage());
+        }
+    }
+
+    private Path entry(byte[] digest){
+        StringBuilder name = new StringBuilder();
+        for(byte b : digest){
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        // lazy and eager ASTs of a script are kept side by side, the engines that want either don't undo each other.
+        if(lazyBodies) name.append("-lazy");
+        return directory.resolve(name.append(".loxc").toString());
+    }
+
+    private static final class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+
+        Writer(DataOutputStream out){
+            this.out = out;
+        }
+
+        void statements(List<? extends Stmt> statements) throws IOException{
+            varint(statements.size());
+            for(Stmt stmt : statements){
+                stmt(stmt);
+            }
+        }
+
+        void globals(List<String> names) throws IOException{
+            varint(names.size());
+            for(String name : names){
+                string(name);
+            }
+        }
+
+        private void stmt(Stmt stmt) throws IOException{
+            if(stmt == null) varint(NONE);
+            else stmt.accept(this);
+        }
+
+        private void expr(Expr expr) throws IOException{
+            if(expr == null) varint(NONE);
+            else expr.accept(this);
+        }
+
+        private void expressions(List<Expr> expressions) throws IOException{
+            varint(expressions.size());
+            for(Expr expr : expressions){
+                expr(expr);
+            }
+        }
+
+        private interface Output{
+            void write() throws IOException;
+        }
+
+        // the visitors can't throw an IOException, it crosses them unchecked.
+        private Void node(Output output){
+            try {
+                output.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return null;
+        }
+
+        /// zigzag, so -1 for a global's depth takes a byte too.
+        private void varint(int value) throws IOException{
+            int bits = (value << 1) ^ (value >> 31);
+            while((bits & ~0x7f) != 0){
+                out.writeByte((bits & 0x7f) | 0x80);
+                bits >>>= 7;
+            }
+            out.writeByte(bits);
+        }
+
+        private void ints(int[] values) throws IOException{
+            varint(values.length);
+            for(int value : values){
+                varint(value);
+            }
+        }
+
+        private void string(String value) throws IOException{
+            Integer index = strings.get(value);
+            if(index != null){
+                varint(index);
+                return;
+            }
+            strings.put(value, strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(-1 - bytes.length);
+            out.write(bytes);
+        }
+
+        private void token(Token token) throws IOException{
+            varint(token.type.ordinal());
+            string(token.lexeme);
+            varint(token.line);
+        }
+
+        private void tokens(List<Token> tokens) throws IOException{
+            varint(tokens.size());
+            for(Token token : tokens){
+                token(token);
+            }
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            return node(() -> { varint(ASSIGN); token(expr.name); expr(expr.value); varint(expr.depth); varint(expr.slot); });
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            return node(() -> { varint(BINARY); expr(expr.left); token(expr.operator); expr(expr.right); });
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            return node(() -> { varint(CALL); expr(expr.callee); token(expr.paren); expressions(expr.arguments); });
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            return node(() -> { varint(GET); expr(expr.object); token(expr.name); });
+        }
+
+        @Override
+        public Void visitInvokeExpr(Expr.Invoke expr) {
+            return node(() -> {
+                varint(INVOKE); expr(expr.object); token(expr.name); token(expr.paren); expressions(expr.arguments);
+            });
+        }
+
+        /// only the Optimizer makes these, and it runs after a program is loaded.
+        @Override
+        public Void visitInlineExpr(Expr.Inline expr) {
+            throw new IllegalStateException("Inline expressions aren't cached.");
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            return node(() -> { varint(GROUPING); expr(expr.expression); });
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return node(() -> {
+                varint(LITERAL);
+                Object value = expr.value;
+                if(value == null){
+                    varint(NIL);
+                }else if(value instanceof Boolean){
+                    varint((Boolean) value ? TRUE : FALSE);
+                }else if(value instanceof Double){
+                    varint(NUMBER);
+                    out.writeDouble((Double) value);
+                }else{
+                    varint(STRING);
+                    string(value.toString());
+                }
+            });
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            return node(() -> { varint(LOGICAL); expr(expr.left); token(expr.operator); expr(expr.right); });
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            return node(() -> { varint(SET); expr(expr.object); token(expr.name); expr(expr.value); });
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            return node(() -> {
+                varint(SUPER); token(expr.keyword); token(expr.method);
+                varint(expr.depth); varint(expr.slot); varint(expr.thisDepth); varint(expr.thisSlot);
+            });
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            return node(() -> { varint(THIS); token(expr.keyword); varint(expr.depth); varint(expr.slot); });
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            return node(() -> { varint(UNARY); token(expr.operator); expr(expr.right); });
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return node(() -> { varint(VARIABLE); token(expr.name); varint(expr.depth); varint(expr.slot); });
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            return node(() -> {
+                varint(BLOCK); varint(stmt.slotCount); out.writeBoolean(stmt.needsEnvironment); statements(stmt.statements);
+            });
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            return node(() -> {
+                varint(CLASS); token(stmt.name); expr(stmt.superclass);
+                varint(stmt.slot); out.writeBoolean(stmt.captured); varint(stmt.superSlot); statements(stmt.methods);
+            });
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            return node(() -> { varint(EXPRESSION); expr(stmt.expression); });
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            return node(() -> {
+                varint(VAR); token(stmt.name); expr(stmt.initializer);
+                varint(stmt.slot); out.writeBoolean(stmt.captured); out.writeBoolean(stmt.assigned);
+            });
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            return node(() -> { varint(RETURN); token(stmt.keyword); expr(stmt.value); });
+        }
+
+        /// a lazy body is kept as its text, like the Parser keeps it. the frame goes ahead of the body, the Reader
+        /// checks the slots the body uses against it.
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            return node(() -> {
+                varint(FUNCTION); token(stmt.name); tokens(stmt.params);
+                out.writeBoolean(stmt.isMethod); varint(stmt.slot); out.writeBoolean(stmt.captured); varint(stmt.slotCount);
+                ints(stmt.captures); ints(stmt.capturedParameters);
+                out.writeBoolean(stmt.memo != null);
+                out.writeBoolean(stmt.lazy != null);
+                if(stmt.lazy != null){
+                    string(stmt.lazy.text);
+                    varint(stmt.lazy.line);
+                }
+                statements(stmt.body);
+            });
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            return node(() -> { varint(IF); expr(stmt.expression); stmt(stmt.thenBranch); stmt(stmt.elseBranch); });
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            return node(() -> { varint(PRINT); expr(stmt.expression); });
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            return node(() -> { varint(WHILE); expr(stmt.condition); stmt(stmt.body); });
+        }
+    }
+
+    /// reads an entry's AST back. the frames of the functions and top level blocks it's inside of are kept as it
+    /// goes, a slot or upvalue outside of the one it indexes, or a count larger than what's left to read, means the
+    /// entry is damaged.
+    private static final class Reader {
+        private final ByteArrayInputStream bytes;
+        private final int length;
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<String>();
+        private final Deque<Frame> frames = new ArrayDeque<Frame>();
+
+        // how many slots the Environment of a frame has, and how many upvalues the closure running in it.
+        private static final class Frame {
+            final int slotCount;
+            final int upvalueCount;
+
+            Frame(int slotCount, int upvalueCount){
+                this.slotCount = slotCount;
+                this.upvalueCount = upvalueCount;
+            }
+        }
+
+        Reader(byte[] payload){
+            this.bytes = new ByteArrayInputStream(payload);
+            this.length = payload.length;
+            this.in = new DataInputStream(bytes);
+        }
+
+        List<Stmt> statements() throws IOException{
+            int count = count();
+            List<Stmt> statements = new ArrayList<Stmt>(count);
+            for(int i = 0; i < count; i++){
+                statements.add(stmt());
+            }
+            return statements;
+        }
+
+        List<String> globals() throws IOException{
+            int count = count();
+            List<String> names = new ArrayList<String>(count);
+            for(int i = 0; i < count; i++){
+                names.add(string());
+            }
+            return names;
+        }
+
+        private List<Stmt.Function> functions() throws IOException{
+            int count = count();
+            List<Stmt.Function> functions = new ArrayList<Stmt.Function>(count);
+            for(int i = 0; i < count; i++){
+                functions.add((Stmt.Function) stmt());
+            }
+            return functions;
+        }
+
+        private List<Expr> expressions() throws IOException{
+            int count = count();
+            List<Expr> expressions = new ArrayList<Expr>(count);
+            for(int i = 0; i < count; i++){
+                expressions.add(expr());
+            }
+            return expressions;
+        }
+
+        private int varint() throws IOException{
+            int bits = 0;
+            for(int shift = 0; ; shift += 7){
+                int b = in.readUnsignedByte();
+                bits |= (b & 0x7f) << shift;
+                if((b & 0x80) == 0) break;
+            }
+            return (bits >>> 1) ^ -(bits & 1);
+        }
+
+        /// the length of a list, every element takes a byte at least.
+        private int count() throws IOException{
+            return count(varint());
+        }
+
+        private int count(int count) throws IOException{
+            if(count < 0 || count > bytes.available()) throw new IOException("Bad count " + count + ".");
+            return count;
+        }
+
+        /// the slots of a frame, the implicit locals it starts with and at most one for each declaration in it.
+        private int slotCount(int implicit) throws IOException{
+            int slotCount = varint();
+            if(slotCount < 0 || slotCount > implicit + length) throw new IOException("Bad slot count " + slotCount + ".");
+            return slotCount;
+        }
+
+        private int[] ints() throws IOException{
+            int[] values = new int[count()];
+            for(int i = 0; i < values.length; i++){
+                values[i] = varint();
+            }
+            return values;
+        }
+
+        private String string() throws IOException{
+            int index = varint();
+            if(index >= 0){
+                if(index >= strings.size()) throw new IOException("Bad string " + index + ".");
+                return strings.get(index);
+            }
+            byte[] bytes = new byte[count(-1 - index)];
+            in.readFully(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            strings.add(value);
+            return value;
+        }
+
+        /// the slot of a declaration, which only a local in a frame uses.
+        private int slot(int slot) throws IOException{
+            if(!frames.isEmpty() && (slot < 0 || slot >= frames.peek().slotCount)){
+                throw new IOException("Bad slot " + slot + ".");
+            }
+            return slot;
+        }
+
+        /// the slot of a variable the Resolver gave a depth, see Environment.getAt.
+        private int slot(int depth, int slot) throws IOException{
+            if(depth == -1) return slot;
+            Frame frame = frames.peek();
+            int size = frame == null ? 0 : depth == 0 ? frame.slotCount : depth == 1 ? frame.upvalueCount : 0;
+            if(slot < 0 || slot >= size) throw new IOException("Bad variable " + depth + ", " + slot + ".");
+            return slot;
+        }
+
+        /// the captures of a closure made in the running frame, see Environment.closure.
+        private int[] captures() throws IOException{
+            int[] captures = ints();
+            Frame frame = frames.peek();
+            for(int capture : captures){
+                int size = frame == null ? 0 : capture >= 0 ? frame.slotCount : frame.upvalueCount;
+                if((capture >= 0 ? capture : -1 - capture) >= size) throw new IOException("Bad capture " + capture + ".");
+            }
+            return captures;
+        }
+        /// a name gets its symbol back from the Token constructor, the ids aren't the same from one run to the next.
+        private Token token() throws IOException{
+            int type = varint();
+            if(type < 0 || type >= TYPES.length) throw new IOException("Unknown token " + type + ".");
+            String lexeme = string();
+            return new Token(TYPES[type], lexeme, null, varint());
+        }
+
+        /// the name of a variable, property or declaration, the engines look it up by its symbol.
+        private Token name() throws IOException{
+            Token name = token();
+            if(name.type != TokenType.IDENTIFIER) throw new IOException("Bad name " + name.lexeme + ".");
+            return name;
+        }
+
+        private List<Token> names() throws IOException{
+            int count = count();
+            List<Token> names = new ArrayList<Token>(count);
+            for(int i = 0; i < count; i++){
+                names.add(name());
+            }
+            return names;
+        }
+
+        private Expr expr() throws IOException{
+            Expr expr = optionalExpr();
+            if(expr == null) throw new IOException("Missing expression.");
+            return expr;
+        }
+
+        private Expr optionalExpr() throws IOException{
+            int tag = varint();
+            switch(tag){
+                case NONE: return null;
+                case ASSIGN: {
+                    Expr.Assign expr = new Expr.Assign(name(), expr());
+                    expr.depth = varint();
+                    expr.slot = slot(expr.depth, varint());
+                    return expr;
+                }
+                case BINARY: return new Expr.Binary(expr(), token(), expr());
+                case CALL: return new Expr.Call(expr(), token(), expressions());
+                case GET: return new Expr.Get(expr(), name());
+                case INVOKE: return new Expr.Invoke(expr(), name(), token(), expressions());
+                case GROUPING: return new Expr.Grouping(expr());
+                case LITERAL: return new Expr.Literal(literal());
+                case LOGICAL: return new Expr.Logical(expr(), token(), expr());
+                case SET: return new Expr.Set(expr(), name(), expr());
+                case SUPER: {
+                    Expr.Super expr = new Expr.Super(token(), name());
+                    expr.depth = varint();
+                    expr.slot = slot(expr.depth, varint());
+                    expr.thisDepth = varint();
+                    expr.thisSlot = slot(expr.thisDepth, varint());
+                    return expr;
+                }
+                case THIS: {
+                    Expr.This expr = new Expr.This(token());
+                    expr.depth = varint();
+                    expr.slot = slot(expr.depth, varint());
+                    return expr;
+                }
+                case UNARY: return new Expr.Unary(token(), expr());
+                case VARIABLE: return variable();
+                default: throw new IOException("Unknown expression " + tag + ".");
+            }
+        }
+
+        private Expr.Variable variable() throws IOException{
+            Expr.Variable expr = new Expr.Variable(name());
+            expr.depth = varint();
+            expr.slot = slot(expr.depth, varint());
+            return expr;
+        }
+
+        private Object literal() throws IOException{
+            int tag = varint();
+            switch(tag){
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case NUMBER: return in.readDouble();
+                case STRING: return string();
+                default: throw new IOException("Unknown literal " + tag + ".");
+            }
+        }
+
+        private Stmt stmt() throws IOException{
+            Stmt stmt = optionalStmt();
+            if(stmt == null) throw new IOException("Missing statement.");
+            return stmt;
+        }
+
+        private Stmt optionalStmt() throws IOException{
+            int tag = varint();
+            switch(tag){
+                case NONE: return null;
+                case BLOCK: {
+                    // a block with an Environment of its own runs in a frame without upvalues.
+                    int slotCount = slotCount(0);
+                    boolean needsEnvironment = in.readBoolean();
+                    if(needsEnvironment) frames.push(new Frame(slotCount, 0));
+                    Stmt.Block stmt = new Stmt.Block(statements());
+                    if(needsEnvironment) frames.pop();
+                    stmt.slotCount = slotCount;
+                    stmt.needsEnvironment = needsEnvironment;
+                    return stmt;
+                }
+                case CLASS: {
+                    Token name = name();
+                    Expr superclass = optionalExpr();
+                    if(superclass != null && !(superclass instanceof Expr.Variable)) throw new IOException("Bad superclass.");
+                    int slot = slot(varint());
+                    boolean captured = in.readBoolean();
+                    int superSlot = varint();
+                    // 'super' is in the running frame, or at the top level in a frame of its own with just it.
+                    boolean superFrame = superclass != null && frames.isEmpty();
+                    if(superclass != null && !superFrame) slot(superSlot);
+                    if(superFrame){
+                        if(superSlot != 0) throw new IOException("Bad slot " + superSlot + ".");
+                        frames.push(new Frame(1, 0));
+                    }
+                    Stmt.Class stmt = new Stmt.Class(name, (Expr.Variable) superclass, functions());
+                    if(superFrame) frames.pop();
+                    stmt.slot = slot;
+                    stmt.captured = captured;
+                    stmt.superSlot = superSlot;
+                    return stmt;
+                }
+                case EXPRESSION: return new Stmt.Expression(expr());
+                case VAR: {
+                    Stmt.Var stmt = new Stmt.Var(name(), optionalExpr());
+                    stmt.slot = slot(varint());
+                    stmt.captured = in.readBoolean();
+                    stmt.assigned = in.readBoolean();
+                    return stmt;
+                }
+                case RETURN: return new Stmt.Return(token(), optionalExpr());
+                case FUNCTION: return function();
+                case IF: return new Stmt.If(expr(), stmt(), optionalStmt());
+                case PRINT: return new Stmt.Print(expr());
+                case WHILE: return new Stmt.While(expr(), stmt());
+                default: throw new IOException("Unknown statement " + tag + ".");
+            }
+        }
+
+        /// a method isn't declared in the frame its class is, its slot means nothing. 'this' and the parameters
+        /// take the first slots of the function's own frame.
+        private Stmt.Function function() throws IOException{
+            Token name = name();
+            List<Token> params = names();
+            boolean isMethod = in.readBoolean();
+            int slot = isMethod ? varint() : slot(varint());
+            boolean captured = in.readBoolean();
+            int slotCount = slotCount(params.size() + (isMethod ? 1 : 0));
+            int[] captures = captures();
+            int[] capturedParameters = ints();
+            for(int parameter : capturedParameters){
+                if(parameter < 0 || parameter >= slotCount) throw new IOException("Bad slot " + parameter + ".");
+            }
+            boolean memo = in.readBoolean();
+            LazyBody lazy = null;
+            if(in.readBoolean()){
+                String text = string();
+                lazy = new LazyBody(text, varint());
+            }
+            // a lazy body gets its frame once it's parsed.
+            if(lazy == null && slotCount < params.size() + (isMethod ? 1 : 0)){
+                throw new IOException("Bad slot count " + slotCount + ".");
+            }
+
+            frames.push(new Frame(slotCount, captures.length));
+            Stmt.Function stmt = new Stmt.Function(name, params, statements());
+            frames.pop();
+            stmt.slot = slot;
+            stmt.captured = captured;
+            stmt.slotCount = slotCount;
+            stmt.isMethod = isMethod;
+            stmt.captures = captures;
+            stmt.capturedParameters = capturedParameters;
+            if(memo) stmt.memo = new MemoCache(name.lexeme);
+            stmt.lazy = lazy;
+            return stmt;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/// the layout of a LoxInstance ("hidden class"): its class, and which slot of its field array holds which field.
+/// the shapes of a class form a tree rooted at LoxClass.shape, adding a field moves an instance to the child shape
+/// for that name. instances of a class that got the same fields in the same order share one shape, so an
+/// InlineCache can recognize them by identity, and knows their methods too.
+final class Shape {
+    final LoxClass klass;
+    // the field names of the shape and their slots, shared with nobody since the child shapes add to a copy.
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new HashMap<String, Shape>();
+
+    Shape(LoxClass klass){
+        this(klass, new HashMap<String, Integer>());
+    }
+
+    private Shape(LoxClass klass, Map<String, Integer> slots){
+        this.klass = klass;
+        this.slots = slots;
+    }
+
+    int size(){
+        return slots.size();
+    }
+
+    /// the slot of the field in instances of this shape, -1 when they don't have it.
+    int slot(String name){
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /// the shape of an instance of this one after the given field was added, its slot is the old size.
+    Shape with(String name){
+        Shape shape = transitions.get(name);
+        if(shape == null){
+            Map<String, Integer> childSlots = new HashMap<String, Integer>(slots);
+            childSlots.put(name, slots.size());
+            shape = new Shape(klass, childSlots);
+            transitions.put(name, shape);
+        }
+        return shape;
+    }
+}
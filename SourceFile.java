@@ -0,0 +1,83 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/// a script mapped into memory, the Scanner reads it straight from the file's pages instead of from copies of it on
+/// the heap. Lox is ASCII outside of its strings and comments, and ASCII means the same in the charsets scripts are
+/// written in, so each byte is read as a char and only the text of a string literal or a lexeme is decoded, with the
+/// platform charset like whole scripts were before. subSequence returns that decoded text, which can be shorter
+/// than the bytes it comes from, and characterEnd tells the Scanner how many bytes a character it doesn't know
+/// takes.
+final class SourceFile implements CharSequence {
+    private final ByteBuffer bytes;
+
+    private SourceFile(ByteBuffer bytes){
+        this.bytes = bytes;
+    }
+
+    static SourceFile map(Path path) throws IOException{
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            if(channel.size() > Integer.MAX_VALUE) throw new IOException("Script too large: " + path);
+            return new SourceFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /// the SHA-256 of the file's bytes.
+    byte[] digest(){
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(bytes.duplicate());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public int length() {
+        return bytes.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (bytes.get(index) & 0xff);
+    }
+
+    /// where the character that starts at the index ends. a non-ASCII one can take several bytes, and bytes that
+    /// aren't a character in the charset count as one, like decoding them would replace them with one.
+    int characterEnd(int index){
+        if(bytes.get(index) >= 0) return index + 1;
+        CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer input = bytes.duplicate();
+        input.position(index);
+        // a character past the Basic Multilingual Plane decodes to a surrogate pair and needs room for both.
+        for(int room = 1; room <= 2; room++){
+            decoder.reset();
+            decoder.decode(input, CharBuffer.allocate(room), true);
+            if(input.position() > index) return input.position();
+        }
+        return index + 1;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        byte[] text = new byte[end - start];
+        bytes.get(start, text);
+        return new String(text, Charset.defaultCharset());
+    }
+
+    @Override
+    public String toString(){
+        return subSequence(0, length()).toString();
+    }
+}
@@ -22,10 +22,13 @@ abstract class Stmt{
     return visitor.visitBlockStmt(this);
     }
     final List<Stmt> statements;
+    int slotCount;
+    boolean needsEnvironment;
     }
     static class Class extends Stmt{
-    Class(Token name, List<Stmt.Function> methods){
+    Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods){
         this.name = name;
+        this.superclass = superclass;
         this.methods = methods;
     }
 
@@ -34,7 +37,11 @@ abstract class Stmt{
     return visitor.visitClassStmt(this);
     }
     final Token name;
+    final Expr.Variable superclass;
     final List<Stmt.Function> methods;
+    int slot;
+    boolean captured;
+    int superSlot;
     }
     static class Expression extends Stmt{
     Expression(Expr expression){
@@ -59,6 +66,9 @@ abstract class Stmt{
     }
     final Token name;
     final Expr initializer;
+    int slot;
+    boolean captured;
+    boolean assigned;
     }
     static class Return extends Stmt{
     Return(Token keyword, Expr value){
@@ -87,6 +97,14 @@ abstract class Stmt{
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    int slot;
+    boolean captured;
+    int slotCount;
+    boolean isMethod;
+    int[] captures;
+    int[] capturedParameters;
+    MemoCache memo;
+    LazyBody lazy;
     }
     static class If extends Stmt{
     If(Expr expression, Stmt thenBranch, Stmt elseBranch){
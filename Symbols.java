@@ -0,0 +1,84 @@
+import java.util.Arrays;
+
+/// every name a program uses, interned once: the Scanner looks an identifier up straight from the source without
+/// copying it, and each distinct name gets a dense id, its symbol, that the Resolver and the globals index arrays
+/// with instead of hashing the name. the table is shared by every script the process runs, so the REPL's lines and
+/// the natives agree on the ids.
+final class Symbols {
+    // open addressing, a slot holds a symbol + 1 and 0 when it's free. kept at most half full.
+    private static int[] table = new int[64];
+    private static String[] names = new String[32];
+    private static int[] hashes = new int[32];
+    private static int count = 0;
+
+    private Symbols(){}
+
+    static int intern(String name){
+        return intern(name, 0, name.length());
+    }
+
+    /// the symbol of the name source[start, end), the name is only copied out of the source the first time it's seen.
+    static int intern(CharSequence source, int start, int end){
+        int hash = 0;
+        for(int i = start; i < end; i++){
+            hash = 31 * hash + source.charAt(i);
+        }
+        return intern(source, start, end, hash);
+    }
+
+    /// the same with the hash of the name already worked out, which is String.hashCode of it.
+    static int intern(CharSequence source, int start, int end, int hash){
+        int mask = table.length - 1;
+        for(int i = hash & mask; ; i = (i + 1) & mask){
+            int entry = table[i];
+            if(entry == 0) break;
+            int symbol = entry - 1;
+            if(hashes[symbol] == hash && matches(names[symbol], source, start, end)) return symbol;
+        }
+
+        return add(source.subSequence(start, end).toString(), hash);
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end){
+        if(name.length() != end - start) return false;
+        for(int i = 0; i < name.length(); i++){
+            if(name.charAt(i) != source.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    static String name(int symbol){
+        return names[symbol];
+    }
+
+    /// how many symbols there are so far, one more than the largest.
+    static int count(){
+        return count;
+    }
+
+    private static int add(String name, int hash){
+        if(count == names.length){
+            names = Arrays.copyOf(names, count * 2);
+            hashes = Arrays.copyOf(hashes, count * 2);
+        }
+        int symbol = count++;
+        names[symbol] = name;
+        hashes[symbol] = hash;
+        if(count * 2 > table.length){
+            // a bigger table is filled again from the names.
+            table = new int[table.length * 2];
+            for(int s = 0; s < symbol; s++){
+                place(s);
+            }
+        }
+        place(symbol);
+        return symbol;
+    }
+
+    private static void place(int symbol){
+        int mask = table.length - 1;
+        int i = hashes[symbol] & mask;
+        while(table[i] != 0) i = (i + 1) & mask;
+        table[i] = symbol + 1;
+    }
+}
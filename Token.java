@@ -5,13 +5,26 @@ public class Token
     final String lexeme;
     final Object literal;
     final int line;
+    // the Symbols id of a name, an identifier, 'this' or 'super', and -1 for any other token.
+    final int symbol;
 
     Token(TokenType type, String lexeme, Object literal, int line)
+    {
+        this(type, lexeme, literal, line, isName(type) ? Symbols.intern(lexeme) : -1);
+    }
+
+    /// a token the Scanner already interned, its lexeme is the symbol's name.
+    Token(TokenType type, String lexeme, Object literal, int line, int symbol)
     {
         this.type = type;
         this.lexeme = lexeme;
         this.literal = literal;
         this.line = line;
+        this.symbol = symbol;
+    }
+
+    static boolean isName(TokenType type){
+        return type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER;
     }
 
     public String toString()
@@ -0,0 +1,116 @@
+/// the tokens of a script as the Parser reads them: the Scanner scans the next one when the Parser first looks at
+/// it, and only the last few are kept, in parallel arrays rather than one Token each. the Parser never looks further
+/// back than the token before the one it's at, nor further ahead than the one after, so however big the script is
+/// the token stream takes a few array entries. the names and operators the AST keeps are made into Tokens when the
+/// Parser asks for them, and their lexemes only then copied out of the source.
+final class Tokens {
+    private static final TokenType[] TYPES = TokenType.values();
+    // how many tokens are kept, a power of two so an index finds its entry with a mask.
+    private static final int WINDOW = 4;
+    private static final int MASK = WINDOW - 1;
+
+    private final Scanner scanner;
+    private final CharSequence source;
+    private final byte[] types = new byte[WINDOW];
+    private final int[] starts = new int[WINDOW];
+    private final int[] lengths = new int[WINDOW];
+    private final int[] lines = new int[WINDOW];
+    // the Symbols id of an identifier or a keyword, -1 for anything else.
+    private final int[] symbols = new int[WINDOW];
+    // the value of a number or a string, null for anything else.
+    private final Object[] literals = new Object[WINDOW];
+    // the lexeme of each type spelled the same way every time, the first time one is needed.
+    private final String[] fixedLexemes = new String[TYPES.length];
+    // how many tokens were scanned so far.
+    private int count = 0;
+
+    Tokens(Scanner scanner, CharSequence source){
+        this.scanner = scanner;
+        this.source = source;
+    }
+
+    void add(TokenType type, int start, int end, int line){
+        add(type, start, end, line, -1, null);
+    }
+
+    /// a number or a string.
+    void add(TokenType type, int start, int end, int line, Object literal){
+        add(type, start, end, line, -1, literal);
+    }
+
+    /// an identifier or a keyword, the Scanner already interned it.
+    void addName(TokenType type, int start, int end, int line, int symbol){
+        add(type, start, end, line, symbol, null);
+    }
+
+    private void add(TokenType type, int start, int end, int line, int symbol, Object literal){
+        int entry = count & MASK;
+        types[entry] = (byte) type.ordinal();
+        starts[entry] = start;
+        lengths[entry] = end - start;
+        lines[entry] = line;
+        symbols[entry] = symbol;
+        literals[entry] = literal;
+        count++;
+    }
+
+    int size(){
+        return count;
+    }
+
+    CharSequence source(){
+        return source;
+    }
+
+    /// the entry of the token at the index, scanning up to it if it wasn't yet.
+    private int entry(int index){
+        while(index >= count) scanner.scanNext();
+        return index & MASK;
+    }
+
+    TokenType type(int index){
+        return TYPES[types[entry(index)]];
+    }
+
+    int line(int index){
+        return lines[entry(index)];
+    }
+
+    /// where the token starts in the source.
+    int start(int index){
+        return starts[entry(index)];
+    }
+
+    /// the symbol of an identifier or a keyword, -1 for any other token.
+    int symbol(int index){
+        return symbols[entry(index)];
+    }
+
+    Object literal(int index){
+        return literals[entry(index)];
+    }
+
+    /// the token at the index as an object, for the AST or an error message.
+    Token token(int index){
+        int entry = entry(index);
+        TokenType type = TYPES[types[entry]];
+        if(symbols[entry] != -1){
+            String name = Symbols.name(symbols[entry]);
+            return new Token(type, name, name, lines[entry], Token.isName(type) ? symbols[entry] : -1);
+        }
+        return new Token(type, lexeme(entry), literals[entry], lines[entry], -1);
+    }
+
+    private String lexeme(int entry){
+        TokenType type = TYPES[types[entry]];
+        if(type == TokenType.NUMBER || type == TokenType.STRING){
+            return source.subSequence(starts[entry], starts[entry] + lengths[entry]).toString();
+        }
+        String lexeme = fixedLexemes[type.ordinal()];
+        if(lexeme == null){
+            lexeme = source.subSequence(starts[entry], starts[entry] + lengths[entry]).toString();
+            fixedLexemes[type.ordinal()] = lexeme;
+        }
+        return lexeme;
+    }
+}
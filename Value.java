@@ -0,0 +1,51 @@
+/// the VM's encoding of a value in a long ("NaN-boxing"). a number is its own IEEE 754 bits, nil and the booleans
+/// are quiet NaNs with a tag and every other value is the OBJECT NaN, with the object itself in the side-array slot
+/// next to the long. Double.doubleToLongBits collapses every NaN a computation produces to 0x7ff8000000000000,
+/// which never collides with the tagged NaNs.
+final class Value {
+    private static final long QNAN = 0x7ffc000000000000L;
+
+    static final long NIL = QNAN | 1;
+    static final long FALSE = QNAN | 2;
+    static final long TRUE = QNAN | 3;
+    static final long OBJECT = 0x8000000000000000L | QNAN;
+
+    private Value(){}
+
+    static boolean isNumber(long value){
+        return (value & QNAN) != QNAN;
+    }
+
+    static long number(double value){
+        return Double.doubleToLongBits(value);
+    }
+
+    static double asNumber(long value){
+        return Double.longBitsToDouble(value);
+    }
+
+    static long bool(boolean value){
+        return value ? TRUE : FALSE;
+    }
+
+    static boolean isFalsey(long value){
+        return value == NIL || value == FALSE;
+    }
+
+    /// the encoding of a value coming from outside the VM, OBJECT when it has to be kept in the side-array.
+    static long of(Object value){
+        if(value == null) return NIL;
+        if(value instanceof Double) return number((Double) value);
+        if(value instanceof Boolean) return bool((Boolean) value);
+        return OBJECT;
+    }
+
+    /// the Object a value stands for, for the globals, the natives and the Interpreter's operators.
+    static Object box(long value, Object reference){
+        if(isNumber(value)) return asNumber(value);
+        if(value == NIL) return null;
+        if(value == TRUE) return Boolean.TRUE;
+        if(value == FALSE) return Boolean.FALSE;
+        return reference;
+    }
+}
@@ -0,0 +1,629 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/// the bytecode engine ('-engine=vm'), runs what the BytecodeCompiler produced in a single loop over the opcodes.
+/// every call pushes a frame whose locals start at the called function's slot in the value stack.
+public class Vm implements Engine {
+
+    // a running call, base is the stack slot holding the called closure and its locals follow it.
+    private static class Frame{
+        VmClosure closure;
+        int ip;
+        int base;
+        // the key the result of a call to a 'memo fun' is cached under when it returns, null for any other call.
+        List<Object> memoKey;
+    }
+
+    // deeper recursion than this is reported as a runtime error instead of running the JVM out of memory.
+    private final int maxDepth;
+
+    final Environment globals = new Environment();
+    // every slot is a long in the Value encoding, the objects live in the side-array at the same index.
+    private long[] stack = new long[256];
+    private Object[] references = new Object[256];
+    private Frame[] frames = new Frame[64];
+    // the upvalues still pointing into the stack, sorted by slot from the top of the stack down.
+    private VmUpvalue openUpvalues = null;
+
+    Vm(int maxDepth){
+        this.maxDepth = maxDepth;
+        NativeFunctions.registerFunctions(globals);
+        for(int i = 0; i < frames.length; i++){
+            frames[i] = new Frame();
+        }
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements) {
+        List<VmFunction> scripts;
+        try {
+            scripts = new BytecodeCompiler().compile(statements);
+        } catch (BytecodeCompiler.CompileError error) {
+            Lox.error(error.line, error.getMessage());
+            return;
+        }
+
+        try {
+            for(VmFunction script : scripts){
+                run(new VmClosure(script));
+            }
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        } finally {
+            // a runtime error leaves the stack as it was, the next line of the REPL starts from an empty one.
+            Arrays.fill(references, null);
+            openUpvalues = null;
+        }
+    }
+
+    private void run(VmClosure script){
+        ensureStack(script.function.maxStack);
+        stack[0] = Value.OBJECT;
+        references[0] = script;
+        int frameCount = 1;
+        Frame frame = frames[0];
+        frame.closure = script;
+        frame.ip = 0;
+        frame.base = 0;
+        frame.memoKey = null;
+
+        long[] stack = this.stack;
+        Object[] references = this.references;
+        byte[] code = script.function.chunk.code;
+        Object[] constants = script.function.chunk.constants;
+        long[] constantValues = script.function.chunk.constantValues;
+        int ip = 0;
+        int base = 0;
+        int sp = 1;
+
+        for(;;){
+            byte op = code[ip++];
+            switch (op) {
+                case OpCode.CONSTANT: {
+                    int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    stack[sp] = constantValues[index];
+                    references[sp++] = constants[index];
+                    break;
+                }
+
+                case OpCode.NIL: stack[sp++] = Value.NIL; break;
+                case OpCode.TRUE: stack[sp++] = Value.TRUE; break;
+                case OpCode.FALSE: stack[sp++] = Value.FALSE; break;
+                case OpCode.POP: references[--sp] = null; break;
+
+                case OpCode.GET_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    stack[sp] = stack[slot];
+                    references[sp++] = references[slot];
+                    break;
+                }
+
+                case OpCode.SET_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    stack[slot] = stack[sp - 1];
+                    references[slot] = references[sp - 1];
+                    break;
+                }
+
+                case OpCode.GET_LOCAL_WIDE: {
+                    int slot = base + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                    ip += 2;
+                    stack[sp] = stack[slot];
+                    references[sp++] = references[slot];
+                    break;
+                }
+
+                case OpCode.SET_LOCAL_WIDE: {
+                    int slot = base + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                    ip += 2;
+                    stack[slot] = stack[sp - 1];
+                    references[slot] = references[sp - 1];
+                    break;
+                }
+
+                // the globals are shared with the natives, so they are kept as Objects.
+                case OpCode.GET_GLOBAL: {
+                    Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    store(sp++, globals.get(name));
+                    break;
+                }
+
+                case OpCode.DEFINE_GLOBAL: {
+                    Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    sp--;
+                    globals.define(name, Value.box(stack[sp], references[sp]));
+                    references[sp] = null;
+                    break;
+                }
+
+                case OpCode.SET_GLOBAL: {
+                    Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    globals.assign(name, Value.box(stack[sp - 1], references[sp - 1]));
+                    break;
+                }
+
+                case OpCode.GET_PROPERTY: {
+                    Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    InlineCache cache = (InlineCache) constants[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)];
+                    ip += 4;
+                    Object object = stack[sp - 1] == Value.OBJECT ? references[sp - 1] : null;
+                    store(sp - 1, cache.get(object, name));
+                    break;
+                }
+
+                case OpCode.SET_PROPERTY: {
+                    Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    InlineCache cache = (InlineCache) constants[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)];
+                    ip += 4;
+                    Object object = stack[sp - 2] == Value.OBJECT ? references[sp - 2] : null;
+                    cache.set(object, name, Value.box(stack[sp - 1], references[sp - 1]));
+                    // the assigned value is the result and takes the object's place.
+                    sp--;
+                    stack[sp - 1] = stack[sp];
+                    references[sp - 1] = references[sp];
+                    references[sp] = null;
+                    break;
+                }
+
+                case OpCode.GET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if(upvalue.isOpen()){
+                        stack[sp] = stack[upvalue.slot];
+                        references[sp++] = references[upvalue.slot];
+                    }else{
+                        stack[sp] = upvalue.closed;
+                        references[sp++] = upvalue.closedReference;
+                    }
+                    break;
+                }
+
+                case OpCode.SET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if(upvalue.isOpen()){
+                        stack[upvalue.slot] = stack[sp - 1];
+                        references[upvalue.slot] = references[sp - 1];
+                    }else{
+                        upvalue.closed = stack[sp - 1];
+                        upvalue.closedReference = references[sp - 1];
+                    }
+                    break;
+                }
+
+                // numbers take the fast path, anything else goes through the Interpreter so the errors match.
+                // equal numbers have equal bits, as Double.equals has it.
+                case OpCode.EQUAL: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    if(Value.isNumber(left) && Value.isNumber(right)) stack[sp - 1] = Value.bool(left == right);
+                    else binary(TokenType.EQUAL_EQUAL, "==", sp - 1, frame, ip);
+                    references[sp] = null;
+                    break;
+                }
+
+                case OpCode.NOT_EQUAL: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    if(Value.isNumber(left) && Value.isNumber(right)) stack[sp - 1] = Value.bool(left != right);
+                    else binary(TokenType.BANG_EQUAL, "!=", sp - 1, frame, ip);
+                    references[sp] = null;
+                    break;
+                }
+
+                case OpCode.GREATER: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    if(Value.isNumber(left) && Value.isNumber(right)) stack[sp - 1] = Value.bool(Value.asNumber(left) > Value.asNumber(right));
+                    else binary(TokenType.GREATER, ">", sp - 1, frame, ip);
+                    references[sp] = null;
+                    break;
+                }
+
+                case OpCode.GREATER_EQUAL: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    if(Value.isNumber(left) && Value.isNumber(right)) stack[sp - 1] = Value.bool(Value.asNumber(left) >= Value.asNumber(right));
+                    else binary(TokenType.GREATER_EQUAL, ">=", sp - 1, frame, ip);
+                    references[sp] = null;
+                    break;
+                }
+
+                case OpCode.LESS: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    if(Value.isNumber(left) && Value.isNumber(right)) stack[sp - 1] = Value.bool(Value.asNumber(left) < Value.asNumber(right));
+                    else binary(TokenType.LESS, "<", sp - 1, frame, ip);
+                    references[sp] = null;
+                    break;
+                }
+
+                case OpCode.LESS_EQUAL: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    if(Value.isNumber(left) && Value.isNumber(right)) stack[sp - 1] = Value.bool(Value.asNumber(left) <= Value.asNumber(right));
+                    else binary(TokenType.LESS_EQUAL, "<=", sp - 1, frame, ip);
+                    references[sp] = null;
+                    break;
+                }
+
+                case OpCode.ADD: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    if(Value.isNumber(left) && Value.isNumber(right)) stack[sp - 1] = Value.number(Value.asNumber(left) + Value.asNumber(right));
+                    else binary(TokenType.PLUS, "+", sp - 1, frame, ip);
+                    references[sp] = null;
+                    break;
+                }
+
+                case OpCode.SUBTRACT: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    if(Value.isNumber(left) && Value.isNumber(right)) stack[sp - 1] = Value.number(Value.asNumber(left) - Value.asNumber(right));
+                    else binary(TokenType.MINUS, "-", sp - 1, frame, ip);
+                    references[sp] = null;
+                    break;
+                }
+
+                case OpCode.MULTIPLY: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    if(Value.isNumber(left) && Value.isNumber(right)) stack[sp - 1] = Value.number(Value.asNumber(left) * Value.asNumber(right));
+                    else binary(TokenType.STAR, "*", sp - 1, frame, ip);
+                    references[sp] = null;
+                    break;
+                }
+
+                // division by zero is an error in jLox, so a zero divisor takes the slow path to report it.
+                case OpCode.DIVIDE: {
+                    long right = stack[--sp];
+                    long left = stack[sp - 1];
+                    if(Value.isNumber(left) && Value.isNumber(right) && Value.asNumber(right) != 0) stack[sp - 1] = Value.number(Value.asNumber(left) / Value.asNumber(right));
+                    else binary(TokenType.SLASH, "/", sp - 1, frame, ip);
+                    references[sp] = null;
+                    break;
+                }
+
+                case OpCode.NOT:
+                    stack[sp - 1] = Value.bool(Value.isFalsey(stack[sp - 1]));
+                    references[sp - 1] = null;
+                    break;
+
+                case OpCode.NEGATE: {
+                    long right = stack[sp - 1];
+                    if(Value.isNumber(right)){
+                        stack[sp - 1] = Value.number(-Value.asNumber(right));
+                    }else{
+                        Token operator = token(TokenType.MINUS, "-", frame, ip);
+                        store(sp - 1, Interpreter.unary(operator, Value.box(right, references[sp - 1])));
+                    }
+                    break;
+                }
+
+                case OpCode.TRUTHY:
+                    stack[sp - 1] = Value.bool(!Value.isFalsey(stack[sp - 1]));
+                    references[sp - 1] = null;
+                    break;
+
+                case OpCode.PRINT:
+                    sp--;
+                    System.out.println(Interpreter.stringify(Value.box(stack[sp], references[sp])));
+                    references[sp] = null;
+                    break;
+
+                case OpCode.JUMP:
+                    ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    break;
+
+                case OpCode.JUMP_IF_FALSE:
+                    if(!Value.isFalsey(stack[sp - 1])) ip += 2;
+                    else ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    break;
+
+                case OpCode.LOOP:
+                    ip -= (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) - 2;
+                    break;
+
+                case OpCode.JUMP_WIDE:
+                    ip += readInt(code, ip) + 4;
+                    break;
+
+                case OpCode.JUMP_IF_FALSE_WIDE:
+                    if(!Value.isFalsey(stack[sp - 1])) ip += 4;
+                    else ip += readInt(code, ip) + 4;
+                    break;
+
+                case OpCode.LOOP_WIDE:
+                    ip -= readInt(code, ip) - 4;
+                    break;
+
+                case OpCode.CALL:
+                case OpCode.TAIL_CALL:
+                case OpCode.INVOKE:
+                case OpCode.TAIL_INVOKE: {
+                    boolean invoke = op == OpCode.INVOKE || op == OpCode.TAIL_INVOKE;
+                    Token name = null;
+                    InlineCache cache = null;
+                    if(invoke){
+                        name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        cache = (InlineCache) constants[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)];
+                        ip += 4;
+                    }
+                    int argCount = code[ip++] & 0xff;
+                    int calleeSlot = sp - argCount - 1;
+                    Object callee = stack[calleeSlot] == Value.OBJECT ? references[calleeSlot] : null;
+
+                    // an invoked method of the instance's class runs without being bound, the instance is already
+                    // in the callee's slot where the method expects 'this'. anything else is called like a value.
+                    VmClosure closure = null;
+                    if(invoke){
+                        LoxMethod method = callee instanceof LoxInstance ? cache.method((LoxInstance) callee, name) : null;
+                        if(method instanceof VmClosure){
+                            closure = (VmClosure) method;
+                        }else{
+                            callee = cache.get(callee, name);
+                            store(calleeSlot, callee);
+                        }
+                    }
+
+                    // a bound method and the initializer of a class run like any closure, with the instance in the
+                    // callee's slot. an invoked method left the instance as the callee, which matches none of these.
+                    if(callee instanceof VmClosure){
+                        closure = (VmClosure) callee;
+                    }else if(callee instanceof VmBoundMethod){
+                        VmBoundMethod bound = (VmBoundMethod) callee;
+                        references[calleeSlot] = bound.receiver;
+                        closure = bound.method;
+                    }else if(callee instanceof LoxClass){
+                        LoxClass klass = (LoxClass) callee;
+                        references[calleeSlot] = new LoxInstance(klass);
+                        closure = (VmClosure) klass.initializer();
+                        if(closure == null){
+                            if(argCount != 0){
+                                throw new RuntimeError(token(TokenType.RIGHT_PAREN, ")", frame, ip),
+                                    "Expected 0arguments but got " + argCount + ".");
+                            }
+                            break;
+                        }
+                    }
+
+                    if(closure != null){
+                        if(argCount != closure.function.arity){
+                            throw new RuntimeError(token(TokenType.RIGHT_PAREN, ")", frame, ip),
+                                "Expected " + closure.function.arity + "arguments but got " + argCount + ".");
+                        }
+
+                        // a 'memo fun' whose cache has the result isn't called at all.
+                        List<Object> memoKey = null;
+                        if(closure.function.memo != null){
+                            List<Object> arguments = new ArrayList<Object>(argCount);
+                            for(int i = calleeSlot + 1; i < sp; i++){
+                                arguments.add(Value.box(stack[i], references[i]));
+                            }
+                            memoKey = MemoCache.key(arguments);
+                            Object result = memoKey == null ? MemoCache.MISSING : closure.function.memo.get(memoKey);
+                            if(result != MemoCache.MISSING){
+                                Arrays.fill(references, calleeSlot, sp, null);
+                                store(calleeSlot, result);
+                                sp = calleeSlot + 1;
+                                break;
+                            }
+                        }
+
+                        // a frame waiting to cache its result can't be taken over, nor can a 'memo fun' take one
+                        // over, so those tail calls are made like any other call and the RETURN after them runs.
+                        boolean tail = (op == OpCode.TAIL_CALL || op == OpCode.TAIL_INVOKE)
+                            && frame.memoKey == null && closure.function.memo == null;
+                        if(tail){
+                            // the callee takes over the frame, its closure and arguments move down to the base.
+                            closeUpvalues(base);
+                            System.arraycopy(stack, calleeSlot, stack, base, argCount + 1);
+                            System.arraycopy(references, calleeSlot, references, base, argCount + 1);
+                            Arrays.fill(references, base + argCount + 1, sp, null);
+                            calleeSlot = base;
+                            sp = base + argCount + 1;
+                        }else{
+                            frame.ip = ip;
+                            if(frameCount == maxDepth){
+                                throw new RuntimeError(token(TokenType.RIGHT_PAREN, ")", frame, ip), "Stack overflow.");
+                            }
+                            if(frameCount == frames.length) growFrames();
+                            frame = frames[frameCount++];
+                        }
+                        frame.closure = closure;
+                        frame.base = calleeSlot;
+                        frame.memoKey = memoKey;
+                        ensureStack(calleeSlot + closure.function.maxStack);
+                        stack = this.stack;
+                        references = this.references;
+
+                        code = closure.function.chunk.code;
+                        constants = closure.function.chunk.constants;
+                        constantValues = closure.function.chunk.constantValues;
+                        ip = 0;
+                        base = calleeSlot;
+                        break;
+                    }
+
+                    if(!(callee instanceof LoxCallable)){
+                        throw new RuntimeError(token(TokenType.RIGHT_PAREN, ")", frame, ip), "Can only call functions and classes.");
+                    }
+
+                    LoxCallable callable = (LoxCallable) callee;
+                    if(argCount != callable.arity()){
+                        throw new RuntimeError(token(TokenType.RIGHT_PAREN, ")", frame, ip),
+                            "Expected " + callable.arity() + "arguments but got " + argCount + ".");
+                    }
+
+                    // natives and classes take their arguments as Objects.
+                    List<Object> arguments = new ArrayList<Object>(argCount);
+                    for(int i = calleeSlot + 1; i < sp; i++){
+                        arguments.add(Value.box(stack[i], references[i]));
+                        references[i] = null;
+                    }
+                    // natives and classes never use the tree-walking Interpreter they are handed.
+                    store(calleeSlot, callable.call(null, arguments));
+                    sp = calleeSlot + 1;
+                    break;
+                }
+
+                case OpCode.CLOSURE: {
+                    VmFunction function = (VmFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClosure closure = new VmClosure(function);
+                    for(int i = 0; i < closure.upvalues.length; i++){
+                        boolean isLocal = code[ip] == 1;
+                        int index = ((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff);
+                        ip += 3;
+                        closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                    }
+                    stack[sp] = Value.OBJECT;
+                    references[sp++] = closure;
+                    break;
+                }
+
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    references[--sp] = null;
+                    break;
+
+                case OpCode.RETURN: {
+                    long result = stack[sp - 1];
+                    Object resultReference = references[sp - 1];
+                    if(frame.memoKey != null){
+                        frame.closure.function.memo.put(frame.memoKey, Value.box(result, resultReference));
+                        frame.memoKey = null;
+                    }
+                    closeUpvalues(base);
+                    Arrays.fill(references, base, sp, null);
+                    frameCount--;
+                    if(frameCount == 0) return;
+
+                    sp = base;
+                    stack[sp] = result;
+                    references[sp++] = resultReference;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    constantValues = frame.closure.function.chunk.constantValues;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+
+                case OpCode.CLASS: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    int first = sp - (((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff));
+                    boolean inherits = code[ip + 4] == 1;
+                    ip += 5;
+
+                    LoxClass superclass = null;
+                    if(inherits){
+                        Object value = stack[first - 1] == Value.OBJECT ? references[first - 1] : null;
+                        if(!(value instanceof LoxClass)){
+                            throw new RuntimeError(token(TokenType.IDENTIFIER, name, frame, ip), "Superclass must be a class.");
+                        }
+                        superclass = (LoxClass) value;
+                    }
+
+                    Map<String, VmClosure> methods = new HashMap<String, VmClosure>();
+                    for(int i = first; i < sp; i++){
+                        VmClosure method = (VmClosure) references[i];
+                        methods.put(method.function.name, method);
+                        references[i] = null;
+                    }
+                    sp = first;
+                    stack[sp] = Value.OBJECT;
+                    references[sp++] = new LoxClass(name, superclass, methods);
+                    break;
+                }
+
+                case OpCode.GET_SUPER: {
+                    Token name = (Token) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    InlineCache cache = (InlineCache) constants[((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)];
+                    ip += 4;
+                    LoxClass superclass = (LoxClass) references[sp - 1];
+                    LoxInstance instance = (LoxInstance) references[sp - 2];
+                    references[--sp] = null;
+                    store(sp - 1, cache.getSuper(superclass, instance, name));
+                    break;
+                }
+
+                default:
+                    throw new IllegalStateException("Unknown opcode " + op + ".");
+            }
+        }
+    }
+
+    /// puts a value coming from outside the VM into a stack slot. only an object is kept in the side-array, a number
+    /// or boolean is all in its bits and the box it came in can go.
+    private void store(int slot, Object value){
+        long bits = Value.of(value);
+        stack[slot] = bits;
+        references[slot] = bits == Value.OBJECT ? value : null;
+    }
+
+    /// the slow path of the binary operators, the operands are boxed for the Interpreter and the result replaces the
+    /// left one. the Interpreter needs a token to report errors at the right line.
+    private void binary(TokenType type, String lexeme, int left, Frame frame, int ip){
+        Object result = Interpreter.binary(token(type, lexeme, frame, ip),
+            Value.box(stack[left], references[left]), Value.box(stack[left + 1], references[left + 1]));
+        store(left, result);
+    }
+
+    /// the instruction before ip is the one that failed, its line is all that's left of the original token.
+    private static Token token(TokenType type, String lexeme, Frame frame, int ip){
+        return new Token(type, lexeme, null, frame.closure.function.chunk.lines[ip - 1]);
+    }
+
+    /// the u32 operand of a wide jump.
+    private static int readInt(byte[] code, int ip){
+        return ((code[ip] & 0xff) << 24) | ((code[ip + 1] & 0xff) << 16) | ((code[ip + 2] & 0xff) << 8)
+            | (code[ip + 3] & 0xff);
+    }
+
+    private void ensureStack(int size){
+        if(size > stack.length){
+            int capacity = Math.max(size, stack.length * 2);
+            stack = Arrays.copyOf(stack, capacity);
+            references = Arrays.copyOf(references, capacity);
+        }
+    }
+
+    private void growFrames(){
+        int count = frames.length;
+        frames = Arrays.copyOf(frames, count * 2);
+        for(int i = count; i < frames.length; i++){
+            frames[i] = new Frame();
+        }
+    }
+
+    private VmUpvalue captureUpvalue(int slot){
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = openUpvalues;
+        while(upvalue != null && upvalue.slot > slot){
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if(upvalue != null && upvalue.slot == slot) return upvalue;
+
+        VmUpvalue created = new VmUpvalue(slot, upvalue);
+        if(previous == null) openUpvalues = created;
+        else previous.next = created;
+        return created;
+    }
+
+    /// moves every variable captured at or above the given slot off the stack and into its upvalue.
+    private void closeUpvalues(int slot){
+        while(openUpvalues != null && openUpvalues.slot >= slot){
+            VmUpvalue upvalue = openUpvalues;
+            upvalue.close(stack[upvalue.slot], references[upvalue.slot]);
+            openUpvalues = upvalue.next;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+/// a method of the VM looked up on an instance, calling it puts the instance in slot 0 of the method's frame.
+public class VmBoundMethod {
+    final LoxInstance receiver;
+    final VmClosure method;
+
+    VmBoundMethod(LoxInstance receiver, VmClosure method){
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    @Override
+    public String toString(){
+        return method.toString();
+    }
+}
@@ -0,0 +1,25 @@
+/// a function value of the VM, the function's code plus the variables it captured from enclosing functions.
+public class VmClosure implements LoxMethod {
+    final VmFunction function;
+    final VmUpvalue[] upvalues;
+
+    VmClosure(VmFunction function){
+        this.function = function;
+        this.upvalues = new VmUpvalue[function.upvalueCount];
+    }
+
+    @Override
+    public int arity() {
+        return function.arity;
+    }
+
+    @Override
+    public VmBoundMethod bind(LoxInstance instance) {
+        return new VmBoundMethod(instance, this);
+    }
+
+    @Override
+    public String toString(){
+        return function.toString();
+    }
+}
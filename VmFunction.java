@@ -0,0 +1,22 @@
+/// a function compiled by the BytecodeCompiler, the VM wraps it in a VmClosure when the declaration executes.
+public class VmFunction {
+    final String name;
+    final int arity;
+    final Chunk chunk = new Chunk();
+    int upvalueCount = 0;
+    // the most stack slots a call ever needs, the VM makes room for all of them when it pushes the frame.
+    int maxStack = 0;
+    // the cache of a 'memo fun', null for any other function.
+    MemoCache memo = null;
+
+    VmFunction(String name, int arity){
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public String toString(){
+        if(name == null) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
@@ -0,0 +1,24 @@
+/// a captured variable, it points at the stack slot of the variable while the declaring function is running
+/// and holds the value itself once that function returned or the variable went out of scope.
+public class VmUpvalue {
+    int slot;
+    // the Value encoding of the closed over variable, the reference only matters when closed is Value.OBJECT.
+    long closed;
+    Object closedReference;
+    VmUpvalue next;
+
+    VmUpvalue(int slot, VmUpvalue next){
+        this.slot = slot;
+        this.next = next;
+    }
+
+    boolean isOpen(){
+        return slot != -1;
+    }
+
+    void close(long value, Object reference){
+        closed = value;
+        closedReference = reference;
+        slot = -1;
+    }
+}
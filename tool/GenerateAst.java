@@ -14,24 +14,34 @@ public class GenerateAst {
         }
 
         String outputDir = args[0];
+
+        // the fields after '|' aren't part of the constructor, they are mutable slots filled in by later passes
+        // (the Resolver and the Optimizer) or the engines (the inline caches of the property accesses), a field may give its initial
+        // value with '='.
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign : Token name, Expr value",
+                "Assign : Token name, Expr value | int depth = -1, int slot",
             "Binary : Expr left, Token operator, Expr right",
             "Call : Expr callee, Token paren, List<Expr> arguments",
+            "Get : Expr object, Token name | InlineCache cache = new InlineCache()",
+            "Invoke : Expr object, Token name, Token paren, List<Expr> arguments | InlineCache cache = new InlineCache()",
+            "Inline : Expr.Call call, Stmt.Function function, Expr body | int base, boolean deoptimized",
             "Grouping : Expr expression",
             "Literal : Object value",
             "Logical : Expr left, Token operator, Expr right",
+            "Set : Expr object, Token name, Expr value | InlineCache cache = new InlineCache()",
+            "Super : Token keyword, Token method | int depth = -1, int slot, int thisDepth, int thisSlot, InlineCache cache = new InlineCache()",
+            "This : Token keyword | int depth = -1, int slot",
             "Unary : Token operator, Expr right",
-            "Variable : Token name"
+            "Variable : Token name | int depth = -1, int slot"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-            "Block : List<Stmt> statements",
-            "Class : Token name, List<Stmt.Function> methods",
+            "Block : List<Stmt> statements | int slotCount, boolean needsEnvironment",
+            "Class : Token name, Expr.Variable superclass, List<Stmt.Function> methods | int slot, boolean captured, int superSlot",
             "Expression : Expr expression",
-            "Var : Token name, Expr initializer",
+            "Var : Token name, Expr initializer | int slot, boolean captured, boolean assigned",
             "Return : Token keyword, Expr value",
-            "Function : Token name, List<Token> params, List<Stmt> body",
+            "Function : Token name, List<Token> params, List<Stmt> body | int slot, boolean captured, int slotCount, boolean isMethod, int[] captures, int[] capturedParameters, MemoCache memo, LazyBody lazy",
             "If : Expr expression, Stmt thenBranch, Stmt elseBranch",
             "Print : Expr expression",
             "While : Expr condition, Stmt body"
@@ -58,9 +68,11 @@ public class GenerateAst {
             String[] toks = type.split(":");
 
             String className = toks[0].trim();
-            String fields = toks[1].trim();
+            String[] sections = toks[1].split("\\|");
+            String fields = sections[0].trim();
+            String mutableFields = sections.length > 1 ? sections[1].trim() : null;
 
-            defineType(writer, baseName, className, fields);
+            defineType(writer, baseName, className, fields, mutableFields);
         }
 
         // The base accept() method
@@ -82,7 +94,7 @@ public class GenerateAst {
         writer.println("    }");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList){
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String mutableFieldList){
         writer.println("    static class " + className + " extends " + baseName + "{");
 
         // constructor
@@ -110,6 +122,11 @@ public class GenerateAst {
         for(String field : fields){
             writer.println("    final " + field + ";");
         }
+        if(mutableFieldList != null){
+            for(String field : mutableFieldList.split(", ")){
+                writer.println("    " + field + ";");
+            }
+        }
         writer.println("    }");
     }
 }